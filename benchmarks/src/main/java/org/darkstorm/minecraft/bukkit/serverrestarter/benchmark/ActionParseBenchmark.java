@@ -0,0 +1,54 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.*;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compiling the actions section of large configs into an action plan, as
+ * done on enable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActionParseBenchmark {
+	@Param({ "1000", "10000" })
+	public int actions;
+
+	private ActionTypeRegistry registry;
+	private String[] values;
+
+	@Setup
+	public void setUp() {
+		registry = new ActionTypeRegistry();
+		ActionTypes.registerDefaults(registry);
+		values = new String[actions];
+		for(int i = 0; i < actions; i++) {
+			int seconds = i % 3600;
+			switch(i % 3) {
+			case 0:
+				values[i] = "message:" + seconds + "s:&aServer will restart in {remaining}...";
+				break;
+			case 1:
+				values[i] = "sound:" + seconds + "s300ms:NOTE_PIANO:1.0:2.0";
+				break;
+			default:
+				values[i] = "scoreboard:" + seconds + "s:setformat:s:&cSeconds left:";
+			}
+		}
+	}
+
+	@Benchmark
+	public ActionPlan compile() throws ActionParseException {
+		List<Action> compiled = new ArrayList<Action>(values.length);
+		for(String value : values)
+			compiled.add(registry.compile(value));
+		return new ActionPlan(compiled);
+	}
+}
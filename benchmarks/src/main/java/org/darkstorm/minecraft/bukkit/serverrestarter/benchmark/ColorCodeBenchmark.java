@@ -0,0 +1,51 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.MessageTemplate;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Color code translation and message rendering, against the regex-based
+ * replaceColorCodes() the plugin used before message templates. Nothing is
+ * cached between calls, so both translations do the full work every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorCodeBenchmark {
+	private static final Pattern colorPattern = Pattern.compile("(?i)&[0-9A-FK-OR]");
+
+	@Param({ "&aServer will restart in 5 minutes...", "&4&lWARNING &r&cRestart in &e&l{remaining}&r&c! &7(&f{players}&7 online) &8- &7{reason}" })
+	public String message;
+
+	private MessageTemplate template;
+
+	@Setup
+	public void setUp() {
+		template = MessageTemplate.compile(message);
+	}
+
+	@Benchmark
+	public String legacyReplaceColorCodes() {
+		String message = this.message;
+		Matcher matcher = colorPattern.matcher(message);
+		while(matcher.find())
+			message = message.substring(0, matcher.start()) + "\247" + message.substring(matcher.end() - 1);
+		return message;
+	}
+
+	@Benchmark
+	public String translateColors() {
+		return MessageTemplate.translateColors(message);
+	}
+
+	@Benchmark
+	public String render() {
+		return template.render(TimeUnit.MINUTES.toMillis(5), 250, "Maintenance");
+	}
+}
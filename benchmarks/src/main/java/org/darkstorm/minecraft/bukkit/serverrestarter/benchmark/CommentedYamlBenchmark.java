@@ -0,0 +1,102 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.darkstorm.minecraft.bukkit.config.CommentedYamlConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommentedYamlBenchmark {
+	@Param({ "100", "10000" })
+	public int nodes;
+
+	private CommentedYamlConfiguration configuration;
+	private Map<String, String> comments;
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		configuration = new CommentedYamlConfiguration();
+		comments = new HashMap<String, String>();
+		for(int i = 0; i < nodes; i++) {
+			String node = "section" + (i / 100) + ".node" + i;
+			configuration.set(node, "message:" + (i % 300) + "s:&aServer will restart in " + (i % 300) + " seconds...");
+			if(i % 10 == 0) {
+				configuration.addComment(node, "Comment for node " + i, "Second line");
+				comments.put(node, "  # Comment for node " + i + "\r\n  # Second line");
+			}
+		}
+		file = File.createTempFile("serverrestarter", ".yml");
+		file.deleteOnExit();
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public void save() throws IOException {
+		configuration.save(file);
+	}
+
+	/**
+	 * The previous implementation: save, read the file back, rebuild it with
+	 * string concatenation and write it a second time.
+	 */
+	@Benchmark
+	public void legacySave() throws IOException {
+		FileUtils.write(file, configuration.saveToString());
+		String separator = System.getProperty("line.separator");
+		String[] yamlContents = FileUtils.readFileToString(file).split(separator);
+		String newContents = "";
+		String currentPath = "";
+		int depth = 0;
+		for(String line : yamlContents) {
+			boolean node = false;
+			if(line.contains(": ") || (line.length() > 1 && line.charAt(line.length() - 1) == ':')) {
+				node = true;
+				int index = line.indexOf(": ");
+				if(index < 0)
+					index = line.length() - 1;
+				if(currentPath.isEmpty())
+					currentPath = line.substring(0, index);
+				else {
+					int whiteSpace = 0;
+					while(whiteSpace < line.length() && line.charAt(whiteSpace) == ' ')
+						whiteSpace++;
+					if(whiteSpace / 2 > depth) {
+						currentPath += "." + line.substring(whiteSpace, index);
+						depth++;
+					} else {
+						int newDepth = whiteSpace / 2;
+						for(int i = 0; i < depth - newDepth; i++)
+							currentPath = currentPath.replace(currentPath.substring(currentPath.lastIndexOf(".")), "");
+						int lastIndex = currentPath.lastIndexOf(".");
+						if(lastIndex < 0)
+							currentPath = "";
+						else
+							currentPath = currentPath.replace(currentPath.substring(lastIndex), "") + ".";
+						currentPath += line.substring(whiteSpace, index);
+						depth = newDepth;
+					}
+				}
+			}
+			String comment = node ? comments.get(currentPath) : null;
+			if(comment != null)
+				line = comment + separator + line;
+			newContents += line + separator;
+		}
+		while(newContents.startsWith(separator))
+			newContents = newContents.replaceFirst(separator, "");
+		FileUtils.write(file, newContents);
+	}
+}
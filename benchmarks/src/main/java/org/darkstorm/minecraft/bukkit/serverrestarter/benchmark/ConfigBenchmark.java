@@ -0,0 +1,27 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.darkstorm.minecraft.bukkit.config.Config;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+	@Param({ "3h", "5m1ms", "1d2h30m15s500ms" })
+	public String value;
+
+	@Benchmark
+	public long getTimeValue() {
+		return Config.getTimeValue(value);
+	}
+
+	@Benchmark
+	public boolean isTimeValue() {
+		return Config.isTimeValue(value);
+	}
+}
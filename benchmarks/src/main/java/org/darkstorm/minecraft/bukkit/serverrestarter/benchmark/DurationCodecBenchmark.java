@@ -0,0 +1,90 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+import org.darkstorm.minecraft.bukkit.config.DurationCodec;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DurationCodec against the regex parser and TimeUnit formatter it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationCodecBenchmark {
+	private static final Pattern timePattern = Pattern.compile("(?i)([0-9]+d)?([0-9]+h)?([0-9]+m)?([0-9]+s)?([0-9]+ms)?");
+
+	@Param({ "3h", "5m1ms", "1d2h30m15s500ms" })
+	public String value;
+
+	private long millis;
+	private StringBuilder builder;
+
+	@Setup
+	public void setUp() {
+		millis = DurationCodec.parse(value);
+		builder = new StringBuilder(32);
+	}
+
+	@Benchmark
+	public long parse() {
+		return DurationCodec.parse(value);
+	}
+
+	@Benchmark
+	public long legacyParse() {
+		Matcher matcher = timePattern.matcher(value);
+		if(!matcher.matches())
+			throw new IllegalArgumentException("Invalid value");
+		long millis = 0;
+		millis += legacyToMillis(matcher.group(1), TimeUnit.DAYS);
+		millis += legacyToMillis(matcher.group(2), TimeUnit.HOURS);
+		millis += legacyToMillis(matcher.group(3), TimeUnit.MINUTES);
+		millis += legacyToMillis(matcher.group(4), TimeUnit.SECONDS);
+		millis += legacyToMillis(matcher.group(5), TimeUnit.MILLISECONDS);
+		return millis;
+	}
+
+	private static long legacyToMillis(String value, TimeUnit unit) {
+		if(value != null && !value.isEmpty()) {
+			Matcher matcher = Pattern.compile("[0-9]+").matcher(value);
+			if(!matcher.find())
+				return 0;
+			return unit.toMillis(Integer.parseInt(matcher.group()));
+		}
+		return 0;
+	}
+
+	@Benchmark
+	public int format() {
+		builder.setLength(0);
+		DurationCodec.format(millis, builder);
+		return builder.length();
+	}
+
+	@Benchmark
+	public String legacyFormat() {
+		long time = millis;
+		int days = (int) TimeUnit.MILLISECONDS.toDays(time);
+		int hours = (int) TimeUnit.MILLISECONDS.toHours(time - TimeUnit.DAYS.toMillis(days));
+		int minutes = (int) TimeUnit.MILLISECONDS.toMinutes(time - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(hours));
+		int seconds = (int) TimeUnit.MILLISECONDS.toSeconds(time - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(hours) - TimeUnit.MINUTES.toMillis(minutes));
+		int milliseconds = (int) (time - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(hours) - TimeUnit.MINUTES.toMillis(minutes) - TimeUnit.SECONDS.toMillis(seconds));
+		StringBuilder builder = new StringBuilder();
+		if(days > 0)
+			builder.append(days).append('d');
+		if(hours > 0)
+			builder.append(hours).append('h');
+		if(minutes > 0)
+			builder.append(minutes).append('m');
+		if(seconds > 0)
+			builder.append(seconds).append('s');
+		if(milliseconds > 0 || builder.length() == 0)
+			builder.append(milliseconds).append("ms");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,121 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.RestartSchedule;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * RestartSchedule.next() for increasing and random query times, against
+ * stepping through every minute until one matches. Setup first checks the
+ * results around DST changes, so a regression there fails the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestartScheduleBenchmark {
+	private static final long START = 1609459200000L, MINUTE = 60000, YEAR = 365 * 24 * 60 * MINUTE;
+
+	@Param({ "04:00", "04:00; 16:00 MON-FRI; 30 2 1 * *", "COMPLEX", "0 3 29 2 *" })
+	public String schedule;
+
+	private String source;
+	private RestartSchedule restartSchedule;
+	private TimeZone timeZone;
+	private long[] times;
+	private int index;
+	private long time;
+
+	@Setup
+	public void setUp() throws ParseException {
+		checkDstChanges();
+		source = schedule;
+		if(source.equals("COMPLEX")) {
+			// A typical busy schedule: every day windows, weekday extras,
+			// monthly and seasonal entries
+			StringBuilder builder = new StringBuilder();
+			for(int hour = 0; hour < 24; hour += 6)
+				builder.append(hour).append(":15 MON-FRI; ");
+			builder.append("0 4 * * SAT,SUN; 30 3 1,15 * *; 0 5 * JUN-AUG SUN; */20 2 * * WED; 45 23 28-31 * *");
+			for(int month = 1; month <= 12; month++)
+				builder.append("; 0 ").append(month % 24).append(' ').append(month).append(' ').append(month).append(" *");
+			source = builder.toString();
+		}
+		timeZone = TimeZone.getTimeZone("Europe/Berlin");
+		restartSchedule = RestartSchedule.parse(source, timeZone);
+		Random random = new Random(0);
+		times = new long[1024];
+		for(int i = 0; i < times.length; i++)
+			times[i] = START + (long) (random.nextDouble() * 4 * YEAR);
+		time = START;
+	}
+
+	/**
+	 * Times skipped when the clocks go forward fire at the end of the gap,
+	 * times repeated when they go back fire once, in the first occurrence.
+	 */
+	private static void checkDstChanges() throws ParseException {
+		TimeZone berlin = TimeZone.getTimeZone("Europe/Berlin");
+		// Spring forward, 02:00 CET becomes 03:00 CEST
+		checkNext("02:30", berlin, "2026-03-28 12:00 +0100", "2026-03-29 03:00 +0200", "2026-03-30 02:30 +0200");
+		checkNext("*/20 2 * * *", berlin, "2026-03-29 01:00 +0100", "2026-03-29 03:00 +0200", "2026-03-30 02:00 +0200");
+		// Fall back, 03:00 CEST becomes 02:00 CET
+		checkNext("02:30", berlin, "2026-10-24 12:00 +0200", "2026-10-25 02:30 +0200", "2026-10-26 02:30 +0100");
+		checkNext("*/20 2 * * *", berlin, "2026-10-25 01:00 +0200", "2026-10-25 02:00 +0200", "2026-10-25 02:20 +0200", "2026-10-25 02:40 +0200", "2026-10-26 02:00 +0100");
+		checkNext("0 * * * *", berlin, "2026-10-25 01:30 +0200", "2026-10-25 02:00 +0200", "2026-10-25 03:00 +0100");
+	}
+
+	private static void checkNext(String schedule, TimeZone timeZone, String after, String... expected) throws ParseException {
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm Z", Locale.ROOT);
+		format.setTimeZone(timeZone);
+		RestartSchedule restartSchedule = RestartSchedule.parse(schedule, timeZone);
+		long time = format.parse(after).getTime();
+		for(String next : expected) {
+			time = restartSchedule.next(time);
+			if(time != format.parse(next).getTime())
+				throw new IllegalStateException("'" + schedule + "' gave " + format.format(new Date(time)) + " instead of " + next);
+		}
+	}
+
+	@Benchmark
+	public long nextIncreasing() {
+		long next = restartSchedule.next(time);
+		// Follow the schedule, as a server restarting on it would
+		time = next != -1 && next < START + 4 * YEAR ? next : START;
+		return next;
+	}
+
+	@Benchmark
+	public long nextRandom() {
+		return restartSchedule.next(times[index++ & (times.length - 1)]);
+	}
+
+	@Benchmark
+	public long parse() {
+		return RestartSchedule.parse(source, timeZone).size();
+	}
+
+	/**
+	 * The calendar work a scheduler checking every minute does to reach the
+	 * same time, without even matching the fields.
+	 */
+	@Benchmark
+	public long legacyMinuteScan() {
+		long after = times[index++ & (times.length - 1)];
+		long next = restartSchedule.next(after);
+		if(next == -1)
+			return -1;
+		Calendar calendar = Calendar.getInstance(timeZone);
+		long steps = 0;
+		for(long minute = after - after % MINUTE + MINUTE; minute <= next; minute += MINUTE) {
+			calendar.setTimeInMillis(minute);
+			steps += calendar.get(Calendar.MINUTE);
+		}
+		return steps;
+	}
+}
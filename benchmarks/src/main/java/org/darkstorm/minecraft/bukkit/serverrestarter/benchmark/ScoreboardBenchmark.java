@@ -0,0 +1,63 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.*;
+import org.bukkit.entity.Player;
+import org.bukkit.scoreboard.*;
+import org.darkstorm.minecraft.bukkit.serverrestarter.RestartScoreboard;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-tick scoreboard update cost with N players online, against the old
+ * update that resolved the score and reassigned the scoreboard to every
+ * player each tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreboardBenchmark {
+	@Param({ "10", "100", "500" })
+	public int players;
+
+	private Server server;
+	private RestartScoreboard scoreboard;
+	private Scoreboard legacyScoreboard;
+	private Objective legacyObjective;
+	private long remaining;
+
+	@Setup
+	public void setUp() {
+		server = Stubs.server(players);
+		scoreboard = new RestartScoreboard(server);
+		scoreboard.setTitle("Restart Time");
+		scoreboard.setFormat("Seconds left:", "s", TimeUnit.MINUTES.toMillis(5));
+		scoreboard.enable(TimeUnit.MINUTES.toMillis(5));
+		legacyScoreboard = server.getScoreboardManager().getNewScoreboard();
+		legacyObjective = legacyScoreboard.registerNewObjective("restart_display", "dummy");
+		remaining = TimeUnit.MINUTES.toMillis(5);
+	}
+
+	@Benchmark
+	public void update() {
+		// One tick's worth of time, so the value changes once every 20 calls
+		remaining -= 50;
+		if(remaining < 0)
+			remaining = TimeUnit.MINUTES.toMillis(5);
+		scoreboard.update(remaining);
+	}
+
+	@Benchmark
+	public void legacyUpdate() {
+		remaining -= 50;
+		if(remaining < 0)
+			remaining = TimeUnit.MINUTES.toMillis(5);
+		OfflinePlayer target = server.getOfflinePlayer("Seconds left:");
+		legacyObjective.getScore(target).setScore((int) (TimeUnit.MILLISECONDS.toSeconds(remaining) + 1));
+		for(Player player : server.getOnlinePlayers())
+			player.setScoreboard(legacyScoreboard);
+	}
+}
@@ -0,0 +1,108 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.*;
+import org.bukkit.plugin.Plugin;
+import org.darkstorm.minecraft.bukkit.serverrestarter.*;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.MessageAction;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.SoundAction;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of ServerRestartTask.run(): an idle tick where nothing is due, a tick
+ * where every action comes due at once, and starting a countdown over an
+ * existing plan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerRestartTaskBenchmark {
+	private static final long RESTART_TIME = TimeUnit.HOURS.toMillis(3);
+
+	@Param({ "10", "100", "10000" })
+	public int actions;
+
+	@Param({ "100" })
+	public int players;
+
+	private Plugin plugin;
+	private CountingHandler handler;
+	private ActionPlan idlePlan, duePlan;
+	private ServerRestartTask idleTask, dueTask;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Stubs.installGlobalServer();
+		plugin = Stubs.plugin(Stubs.server(players));
+		handler = new CountingHandler();
+
+		List<Action> idle = new ArrayList<Action>(), due = new ArrayList<Action>();
+		for(int i = 0; i < actions; i++) {
+			// Spread over the final five minutes, like a real countdown
+			long time = TimeUnit.MINUTES.toMillis(5) * (i + 1) / actions;
+			idle.add(createAction(i, time));
+			due.add(createAction(i, RESTART_TIME));
+		}
+		idlePlan = new ActionPlan(idle);
+		duePlan = new ActionPlan(due);
+		idleTask = new ServerRestartTask(plugin, handler, idlePlan, RESTART_TIME);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpDueTask() {
+		dueTask = new ServerRestartTask(plugin, handler, duePlan, RESTART_TIME);
+		// Wait until every action in the plan is due
+		while(dueTask.getRemainingTime() >= RESTART_TIME)
+			Thread.yield();
+	}
+
+	private static Action createAction(int index, long time) {
+		if(index % 2 == 0)
+			return new MessageAction("&aServer will restart soon...", time);
+		return new SoundAction(Sound.NOTE_PIANO, 1, 1, time);
+	}
+
+	@Benchmark
+	public void idleTick() {
+		idleTask.run();
+	}
+
+	@Benchmark
+	public void allDue() {
+		dueTask.run();
+	}
+
+	@Benchmark
+	public ServerRestartTask startCountdown() {
+		return new ServerRestartTask(plugin, handler, idlePlan, RESTART_TIME / 2);
+	}
+
+	private static final class CountingHandler implements ServerRestartTask.Handler {
+		private long fired, updates;
+
+		@Override
+		public void onActionFired(Action action, long late) {
+			fired++;
+		}
+
+		@Override
+		public void onUpdate(long timeLeft) {
+			updates++;
+		}
+
+		@Override
+		public long getTimeUntilUpdate(long timeLeft) {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public void onRestart() {
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter.benchmark;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+import org.bukkit.*;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scoreboard.*;
+
+/**
+ * Minimal proxy-based stand-ins for the Bukkit server, so the plugin's hot
+ * paths can be measured without a running server. Unhandled methods return
+ * zero, false, "stub" or null.
+ */
+final class Stubs {
+	private static final Location location = new Location(null, 0, 64, 0);
+
+	private Stubs() {
+	}
+
+	interface Answer {
+		Object answer(Object[] args);
+	}
+
+	static Server server(int playerCount) {
+		final Player[] players = new Player[playerCount];
+		for(int i = 0; i < playerCount; i++)
+			players[i] = player("Player" + i);
+		final ConsoleCommandSender console = proxy(ConsoleCommandSender.class, Collections.<String, Object> emptyMap());
+		final BukkitScheduler scheduler = proxy(BukkitScheduler.class, Collections.<String, Object> emptyMap());
+		Map<String, Object> scoreboardManager = new HashMap<String, Object>();
+		scoreboardManager.put("getNewScoreboard", new Answer() {
+			@Override
+			public Object answer(Object[] args) {
+				return scoreboard();
+			}
+		});
+		final ScoreboardManager manager = proxy(ScoreboardManager.class, scoreboardManager);
+
+		Map<String, Object> server = new HashMap<String, Object>();
+		server.put("getOnlinePlayers", new Answer() {
+			@Override
+			public Object answer(Object[] args) {
+				return players.clone();
+			}
+		});
+		server.put("getOfflinePlayer", new Answer() {
+			@Override
+			public Object answer(Object[] args) {
+				return offlinePlayer((String) args[0]);
+			}
+		});
+		server.put("getConsoleSender", console);
+		server.put("getScheduler", scheduler);
+		server.put("getScoreboardManager", manager);
+		server.put("getLogger", Logger.getLogger("Stub"));
+		return proxy(Server.class, server);
+	}
+
+	/**
+	 * Installs a server with no players as Bukkit's global server, for code
+	 * that goes through the static Bukkit accessors.
+	 */
+	static synchronized void installGlobalServer() {
+		if(Bukkit.getServer() == null)
+			Bukkit.setServer(server(0));
+	}
+
+	static Plugin plugin(Server server) {
+		return proxy(Plugin.class, Collections.<String, Object> singletonMap("getServer", server));
+	}
+
+	static Player player(String name) {
+		Map<String, Object> answers = new HashMap<String, Object>();
+		answers.put("getName", name);
+		answers.put("getLocation", location);
+		answers.put("isOnline", true);
+		return proxy(Player.class, answers);
+	}
+
+	static OfflinePlayer offlinePlayer(String name) {
+		return proxy(OfflinePlayer.class, Collections.<String, Object> singletonMap("getName", name));
+	}
+
+	static Scoreboard scoreboard() {
+		final Score score = proxy(Score.class, Collections.<String, Object> emptyMap());
+		final Objective objective = proxy(Objective.class, Collections.<String, Object> singletonMap("getScore", score));
+		return proxy(Scoreboard.class, Collections.<String, Object> singletonMap("registerNewObjective", objective));
+	}
+
+	static <T> T proxy(final Class<T> type, final Map<String, Object> answers) {
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				Object answer = answers.get(name);
+				if(answer instanceof Answer)
+					return ((Answer) answer).answer(args);
+				if(answer != null)
+					return answer;
+				if(name.equals("hashCode") && method.getParameterTypes().length == 0)
+					return System.identityHashCode(proxy);
+				if(name.equals("equals") && method.getParameterTypes().length == 1)
+					return proxy == args[0];
+				if(name.equals("toString") && method.getParameterTypes().length == 0)
+					return type.getSimpleName() + "Stub";
+				return getDefaultValue(method.getReturnType());
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	private static Object getDefaultValue(Class<?> type) {
+		if(type == boolean.class)
+			return false;
+		else if(type == int.class)
+			return 0;
+		else if(type == long.class)
+			return 0L;
+		else if(type == float.class)
+			return 0F;
+		else if(type == double.class)
+			return 0D;
+		else if(type == short.class)
+			return (short) 0;
+		else if(type == byte.class)
+			return (byte) 0;
+		else if(type == char.class)
+			return (char) 0;
+		else if(type == String.class)
+			return "stub";
+		return null;
+	}
+}
@@ -0,0 +1,106 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+
+/**
+ * Replaces a file's contents atomically. Data is written to a uniquely named
+ * temporary file next to the target, forced to disk and then renamed over it,
+ * so readers see either the old or the new file and never a partial write,
+ * even after a crash. Each instance is good for one write.
+ */
+public final class AtomicFile {
+	private final File file;
+
+	private File tempFile;
+	private FileChannel channel;
+
+	public AtomicFile(File file) {
+		if(file == null)
+			throw new NullPointerException();
+		this.file = file.getAbsoluteFile();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Writer startWrite(Charset charset) throws IOException {
+		return new BufferedWriter(Channels.newWriter(openChannel(), charset.newEncoder(), 8192));
+	}
+
+	public OutputStream startWrite() throws IOException {
+		return new BufferedOutputStream(Channels.newOutputStream(openChannel()));
+	}
+
+	private FileChannel openChannel() throws IOException {
+		File parent = file.getParentFile();
+		if(channel != null)
+			throw new IllegalStateException("Write already started");
+		if(parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Unable to create directory " + parent);
+		tempFile = File.createTempFile("." + file.getName() + ".", ".tmp", parent);
+		try {
+			channel = new FileOutputStream(tempFile).getChannel();
+		} catch(IOException exception) {
+			tempFile.delete();
+			throw exception;
+		}
+		return channel;
+	}
+
+	/**
+	 * Flushes the stream returned by startWrite(), forces the data to disk,
+	 * closes the stream and moves the written data into place.
+	 */
+	public <S extends Closeable & Flushable> void finishWrite(S stream) throws IOException {
+		try {
+			stream.flush();
+			channel.force(true);
+			stream.close();
+		} catch(IOException exception) {
+			failWrite(stream);
+			throw exception;
+		}
+		try {
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException exception) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException exception) {
+			tempFile.delete();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Closes the stream returned by startWrite() and discards what was
+	 * written, leaving the original file untouched.
+	 */
+	public void failWrite(Closeable stream) {
+		try {
+			stream.close();
+		} catch(IOException exception) {}
+		if(tempFile != null)
+			tempFile.delete();
+	}
+
+	public static void write(File file, byte[] data) throws IOException {
+		AtomicFile atomicFile = new AtomicFile(file);
+		OutputStream out = atomicFile.startWrite();
+		try {
+			out.write(data);
+		} catch(IOException exception) {
+			atomicFile.failWrite(out);
+			throw exception;
+		}
+		atomicFile.finishWrite(out);
+	}
+
+	public static void write(File file, String data, Charset charset) throws IOException {
+		write(file, data.getBytes(charset));
+	}
+}
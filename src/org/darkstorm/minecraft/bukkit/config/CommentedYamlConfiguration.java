@@ -1,15 +1,18 @@
 package org.darkstorm.minecraft.bukkit.config;
 
 import java.io.*;
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.util.*;
 
-import org.apache.commons.io.FileUtils;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 /**
  * @author dumptruckman
  */
 public class CommentedYamlConfiguration extends YamlConfiguration {
+	// Always UTF-8, whatever the platform default
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
 
 	private HashMap<String, String> comments;
 
@@ -19,153 +22,111 @@ public class CommentedYamlConfiguration extends YamlConfiguration {
 	}
 
 	@Override
-	public void save(File file) throws IOException {
-		// Save the config just like normal
-		super.save(file);
-
-		// if there's comments to add and it saved fine, we need to add comments
-		if(!comments.isEmpty()) {
-			// String array of each line in the config file
-			String[] yamlContents;
-			try {
-				yamlContents = FileUtils.readFileToString(file).split(System.getProperty("line.separator"));
-			} catch(Exception exception) {
-				exception.printStackTrace();
-				return;
-			}
-
-			// This will hold the newly formatted line
-			String newContents = "";
-			// This holds the current path the lines are at in the config
-			String currentPath = "";
-			// This tells if the specified path has already been commented
-			boolean commentedPath = false;
-			// This flags if the line is a node or unknown text.
-			boolean node = false;
-			// The depth of the path. (number of words separated by periods - 1)
-			int depth = 0;
-
-			// Loop through the config lines
-			for(String line : yamlContents) {
-				// If the line is a node (and not something like a list value)
-				if(line.contains(": ") || (line.length() > 1 && line.charAt(line.length() - 1) == ':')) {
-
-					// This is a new node so we need to mark it for commenting
-					// (if there are comments)
-					commentedPath = false;
-					// This is a node so flag it as one
-					node = true;
-
-					// Grab the index of the end of the node name
-					int index = 0;
-					index = line.indexOf(": ");
-					if(index < 0) {
-						index = line.length() - 1;
-					}
-					// If currentPath is empty, store the node name as the
-					// currentPath. (this is only on the first iteration, i
-					// think)
-					if(currentPath.isEmpty()) {
-						currentPath = line.substring(0, index);
-					} else {
-						// Calculate the whitespace preceding the node name
-						int whiteSpace = 0;
-						for(int n = 0; n < line.length(); n++) {
-							if(line.charAt(n) == ' ') {
-								whiteSpace++;
-							} else {
-								break;
-							}
-						}
-						// Find out if the current depth (whitespace * 2) is
-						// greater/lesser/equal to the previous depth
-						if(whiteSpace / 2 > depth) {
-							// Path is deeper. Add a . and the node name
-							currentPath += "." + line.substring(whiteSpace, index);
-							depth++;
-						} else if(whiteSpace / 2 < depth) {
-							// Path is shallower, calculate current depth from
-							// whitespace (whitespace / 2) and subtract that
-							// many levels from the currentPath
-							int newDepth = whiteSpace / 2;
-							for(int i = 0; i < depth - newDepth; i++) {
-								currentPath = currentPath.replace(currentPath.substring(currentPath.lastIndexOf(".")), "");
-							}
-							// Grab the index of the final period
-							int lastIndex = currentPath.lastIndexOf(".");
-							if(lastIndex < 0) {
-								// if there isn't a final period, set the
-								// current path to nothing because we're at root
-								currentPath = "";
-							} else {
-								// If there is a final period, replace
-								// everything after it with nothing
-								currentPath = currentPath.replace(currentPath.substring(currentPath.lastIndexOf(".")), "");
-								currentPath += ".";
-							}
-							// Add the new node name to the path
-							currentPath += line.substring(whiteSpace, index);
-							// Reset the depth
-							depth = newDepth;
-						} else {
-							// Path is same depth, replace the last path node
-							// name to the current node name
-							int lastIndex = currentPath.lastIndexOf(".");
-							if(lastIndex < 0) {
-								// if there isn't a final period, set the
-								// current path to nothing because we're at root
-								currentPath = "";
-							} else {
-								// If there is a final period, replace
-								// everything after it with nothing
-								currentPath = currentPath.replace(currentPath.substring(currentPath.lastIndexOf(".")), "");
-								currentPath += ".";
-							}
-							// currentPath =
-							// currentPath.replace(currentPath.substring(currentPath.lastIndexOf(".")),
-							// "");
-							currentPath += line.substring(whiteSpace, index);
-
-						}
-
-					}
+	public void load(File file) throws IOException, InvalidConfigurationException {
+		if(file == null)
+			throw new IllegalArgumentException("File cannot be null");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1)
+				bytes.write(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		loadFromString(new String(bytes.toByteArray(), UTF_8));
+	}
 
-				} else
-					node = false;
+	@Override
+	public void save(File file) throws IOException {
+		if(file == null)
+			throw new IllegalArgumentException("File cannot be null");
+		String data = saveToString();
+
+		// Written to a temporary file and moved into place, so a crash or a
+		// concurrent reader never sees a half written config
+		AtomicFile atomicFile = new AtomicFile(file);
+		Writer writer = atomicFile.startWrite(UTF_8);
+		try {
+			if(comments.isEmpty())
+				writer.write(data);
+			else
+				writeCommented(data, writer);
+		} catch(IOException exception) {
+			atomicFile.failWrite(writer);
+			throw exception;
+		}
+		atomicFile.finishWrite(writer);
+	}
 
-				if(node) {
-					String comment = null;
-					if(!commentedPath) {
-						// If there's a comment for the current path, retrieve
-						// it and flag that path as already commented
-						comment = comments.get(currentPath);
-					}
-					if(comment != null) {
-						// Add the comment to the beginning of the current line
-						line = comment + System.getProperty("line.separator") + line + System.getProperty("line.separator");
-						comment = null;
-						commentedPath = true;
-					} else {
-						// Add a new line as it is a node, but has no comment
-						line += System.getProperty("line.separator");
-					}
+	/**
+	 * Writes the YAML line by line, inserting each node's comment before it.
+	 * The current path is kept in a single builder that is truncated back to
+	 * the parent's length whenever the indentation changes, so every line is
+	 * only looked at once.
+	 */
+	private void writeCommented(String yaml, Writer writer) throws IOException {
+		String separator = System.getProperty("line.separator");
+		StringBuilder path = new StringBuilder();
+		// Length of the path up to and including each depth
+		int[] pathLengths = new int[8];
+		int depthCount = 0;
+		// Due to a bukkit bug we need to strip any extra new lines from the
+		// beginning of this file, else they will multiply.
+		boolean written = false;
+
+		int length = yaml.length();
+		for(int start = 0, end; start < length; start = end + 1) {
+			end = yaml.indexOf('\n', start);
+			if(end == -1)
+				end = length;
+			int lineEnd = end;
+			if(lineEnd > start && yaml.charAt(lineEnd - 1) == '\r')
+				lineEnd--;
+			if(lineEnd == start && !written)
+				continue;
+
+			// If the line is a node (and not something like a list value)
+			int nameEnd = getNodeNameEnd(yaml, start, lineEnd);
+			if(nameEnd != -1) {
+				int whiteSpace = 0;
+				while(start + whiteSpace < nameEnd && yaml.charAt(start + whiteSpace) == ' ')
+					whiteSpace++;
+				int depth = Math.min(whiteSpace / 2, depthCount);
+				path.setLength(depth > 0 ? pathLengths[depth - 1] : 0);
+				if(depth > 0)
+					path.append('.');
+				path.append(yaml, start + whiteSpace, nameEnd);
+				if(depth == pathLengths.length)
+					pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+				pathLengths[depth] = path.length();
+				depthCount = depth + 1;
+
+				String comment = comments.get(path.toString());
+				if(comment != null) {
+					writer.write(comment);
+					writer.write(separator);
 				}
-				// Add the (modified) line to the total config String
-				newContents += line + ((!node) ? System.getProperty("line.separator") : "");
-
 			}
-			/*
-			 * Due to a bukkit bug we need to strip any extra new lines from the
-			 * beginning of this file, else they will multiply.
-			 */
-			while(newContents.startsWith(System.getProperty("line.separator")))
-				newContents = newContents.replaceFirst(System.getProperty("line.separator"), "");
-
-			// Write the string to the config file
-			FileUtils.write(file, newContents);
+			writer.write(yaml, start, lineEnd - start);
+			writer.write(separator);
+			written = true;
 		}
 	}
 
+	/**
+	 * @return The end of the node name if the line is a node, otherwise -1.
+	 */
+	private static int getNodeNameEnd(String yaml, int start, int end) {
+		for(int i = start; i < end - 1; i++)
+			if(yaml.charAt(i) == ':' && yaml.charAt(i + 1) == ' ')
+				return i;
+		if(end - start > 1 && yaml.charAt(end - 1) == ':')
+			return end - 1;
+		return -1;
+	}
+
 	/**
 	 * Adds a comment just before the specified path. The comment can be
 	 * multiple lines. An empty string will indicate a blank line.
@@ -177,10 +138,10 @@ public class CommentedYamlConfiguration extends YamlConfiguration {
 	 */
 	public void addComment(String path, String... commentLines) {
 		StringBuilder commentstring = new StringBuilder();
-		String leadingSpaces = "";
+		StringBuilder leadingSpaces = new StringBuilder();
 		for(int n = 0; n < path.length(); n++) {
 			if(path.charAt(n) == '.') {
-				leadingSpaces += "  ";
+				leadingSpaces.append("  ");
 			}
 		}
 		for(String line : commentLines) {
@@ -190,7 +151,7 @@ public class CommentedYamlConfiguration extends YamlConfiguration {
 				line = " ";
 			}
 			if(commentstring.length() > 0) {
-				commentstring.append("\r\n");
+				commentstring.append(System.getProperty("line.separator"));
 			}
 			commentstring.append(line);
 		}
@@ -1,28 +1,138 @@
 package org.darkstorm.minecraft.bukkit.config;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.*;
 
+/**
+ * Flat, immutable view of a configuration. Keys are case-folded and interned
+ * once on construction and also kept in a sorted array, so lookups never
+ * allocate and subtree queries are a pair of binary searches. Nodes passed to
+ * the constructor are validated there, in one pass; reads of those nodes use
+ * the cached result instead of validating again. Keys that differ only in
+ * case are merged, preferring the key that is already lower case, otherwise
+ * the last in sorted order, and reported by getWarnings().
+ */
 public final class Config {
-	private static final Pattern timePattern = Pattern.compile("(?i)([0-9]+d)?([0-9]+h)?([0-9]+m)?([0-9]+s)?([0-9]+ms)?");
-
 	private final Map<String, String> config;
+	private final String[] keys;
+	private final List<String> keyList;
+
+	private final ConfigNode[] nodes;
+	private final Map<ConfigNode, Integer> nodeIndices;
+	private final String[] nodeValues;
+	private final BitSet valid;
+	private final List<String> errors, warnings;
 
 	public Config(Map<String, String> config) {
-		if(config == null)
+		this(config, new ConfigNode[0]);
+	}
+
+	/**
+	 * @param nodes
+	 *            Nodes to validate up front. Errors are available from
+	 *            getErrors(), and invalid or missing nodes read as their
+	 *            defaults.
+	 */
+	public Config(Map<String, String> config, ConfigNode[] nodes) {
+		if(config == null || nodes == null)
 			throw new NullPointerException();
-		for(String key : config.keySet())
-			if(key == null)
+		Map<String, String> folded = new HashMap<String, String>(config.size() * 4 / 3 + 1);
+		// Original key each folded key was taken from, only kept while
+		// resolving a collision
+		Map<String, String> originals = null;
+		Set<String> duplicates = new TreeSet<String>();
+		for(Map.Entry<String, String> entry : config.entrySet()) {
+			if(entry.getKey() == null)
 				throw new IllegalArgumentException("Null key in config");
-			else if(config.get(key) == null)
+			else if(entry.getValue() == null)
 				throw new IllegalArgumentException("Null value in config");
-		this.config = Collections.unmodifiableMap(new HashMap<String, String>(config));
+			String original = entry.getKey();
+			String key = original.toLowerCase(Locale.ENGLISH).intern();
+			String previous = folded.put(key, entry.getValue());
+			if(previous == null)
+				continue;
+			// Input order may not be stable, so pick the winner by key
+			if(originals == null)
+				originals = getOriginalKeys(config);
+			String winner = originals.get(key);
+			if(!winner.equals(original))
+				folded.put(key, previous);
+			duplicates.add(key);
+		}
+		List<String> warnings = new ArrayList<String>(duplicates.size());
+		for(String key : duplicates)
+			warnings.add("Config node '" + key + "' is given more than once in different case, using '" + originals.get(key) + "'");
+		this.config = Collections.unmodifiableMap(folded);
+		keys = folded.keySet().toArray(new String[folded.size()]);
+		Arrays.sort(keys);
+		keyList = Collections.unmodifiableList(Arrays.asList(keys));
+
+		this.nodes = nodes.clone();
+		nodeIndices = new IdentityHashMap<ConfigNode, Integer>(nodes.length);
+		nodeValues = new String[nodes.length];
+		valid = new BitSet(nodes.length);
+		List<String> errors = new ArrayList<String>();
+		for(int i = 0; i < nodes.length; i++) {
+			ConfigNode node = nodes[i];
+			if(node == null)
+				throw new NullPointerException();
+			if(node.getNode() == null)
+				throw new IllegalArgumentException("ConfigNode node is null");
+			nodeIndices.put(node, i);
+			String value = getString(node.getNode());
+			if(value == null)
+				continue;
+			String error = node.getValidator().validate(value);
+			if(error == null) {
+				valid.set(i);
+				nodeValues[i] = value;
+			} else
+				errors.add(node.getNode() + ": " + error + ", was '" + value + "'");
+		}
+		this.errors = Collections.unmodifiableList(errors);
+		this.warnings = Collections.unmodifiableList(warnings);
+	}
+
+	private static Map<String, String> getOriginalKeys(Map<String, String> config) {
+		Map<String, String> originals = new HashMap<String, String>();
+		for(String original : config.keySet()) {
+			String key = original.toLowerCase(Locale.ENGLISH);
+			String current = originals.get(key);
+			if(current == null || (!current.equals(key) && (original.equals(key) || original.compareTo(current) > 0)))
+				originals.put(key, original);
+		}
+		return originals;
+	}
+
+	/**
+	 * @return A description of every node given to the constructor whose
+	 *         value failed validation.
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return Problems that did not stop the config from loading, such as
+	 *         keys that differ only in case.
+	 */
+	public List<String> getWarnings() {
+		return warnings;
+	}
+
+	/**
+	 * @return A pre-parsed snapshot of the given nodes, indexed by their
+	 *         position in the array.
+	 */
+	public ConfigSnapshot snapshot(ConfigNode[] nodes) {
+		return new ConfigSnapshot(this, nodes);
 	}
 
 	public String getString(ConfigNode node) {
 		if(node == null)
 			throw new NullPointerException();
+		int index = indexOf(node);
+		if(index != -1)
+			return valid.get(index) ? nodeValues[index] : node.getDefaultValue();
 		if(node.getNode() == null)
 			throw new IllegalArgumentException("ConfigNode node is null");
 		String value = getString(node.getNode());
@@ -34,12 +144,28 @@ public final class Config {
 	public boolean has(ConfigNode node) {
 		if(node == null)
 			throw new NullPointerException();
+		int index = indexOf(node);
+		if(index != -1)
+			return valid.get(index);
 		if(node.getNode() == null)
 			throw new IllegalArgumentException("ConfigNode node is null");
 		String value = getString(node.getNode());
 		return value != null && node.isValid(value);
 	}
 
+	/**
+	 * @return The node's position among the validated nodes, or -1.
+	 */
+	private int indexOf(ConfigNode node) {
+		if(node instanceof Enum<?>) {
+			int ordinal = ((Enum<?>) node).ordinal();
+			if(ordinal < nodes.length && nodes[ordinal] == node)
+				return ordinal;
+		}
+		Integer index = nodeIndices.get(node);
+		return index != null ? index : -1;
+	}
+
 	public boolean getBoolean(ConfigNode node) {
 		return getBooleanValue(getString(node));
 	}
@@ -107,24 +233,95 @@ public final class Config {
 	public String getString(String node) {
 		if(node == null)
 			throw new NullPointerException();
-		return config.get(node.toLowerCase());
+		String value = config.get(node);
+		if(value == null && !isFolded(node)) {
+			// Fall back to a case-insensitive search rather than lowercasing
+			int low = 0, high = keys.length - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				int result = compareFolded(keys[mid], node);
+				if(result < 0)
+					low = mid + 1;
+				else if(result > 0)
+					high = mid - 1;
+				else
+					return config.get(keys[mid]);
+			}
+		}
+		return value;
 	}
 
 	public boolean has(String node) {
-		if(node == null)
-			throw new NullPointerException();
-		return config.get(node) != null;
+		return getString(node) != null;
 	}
 
+	/**
+	 * @return Every node below the given node, in sorted order.
+	 */
 	public List<String> getSubNodes(String node) {
 		if(node == null)
 			throw new NullPointerException();
-		node = node.concat(".");
-		List<String> subNodes = new ArrayList<String>();
-		for(String subNode : config.keySet())
-			if(subNode.startsWith(node) && !subNode.substring(node.length()).isEmpty())
-				subNodes.add(subNode);
-		return Collections.unmodifiableList(subNodes);
+		// Children of "a" sort after "a." and before "a/"
+		int from = search(node, '.', true);
+		int to = search(node, (char) ('.' + 1), false);
+		return keyList.subList(from, Math.max(from, to));
+	}
+
+	public List<String> getNodes() {
+		return keyList;
+	}
+
+	/**
+	 * @return The first key index that sorts after (or, if not strict, not
+	 *         before) the given prefix followed by the given character.
+	 */
+	private int search(String prefix, char last, boolean strict) {
+		int low = 0, high = keys.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			int result = compareFolded(keys[mid], prefix, last);
+			if(result < 0 || (strict && result == 0))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static int compareFolded(String key, String node) {
+		int length = Math.min(key.length(), node.length());
+		for(int i = 0; i < length; i++) {
+			char a = key.charAt(i), b = Character.toLowerCase(node.charAt(i));
+			if(a != b)
+				return a - b;
+		}
+		return key.length() - node.length();
+	}
+
+	private static int compareFolded(String key, String prefix, char last) {
+		int length = prefix.length();
+		for(int i = 0; i < length; i++) {
+			if(i == key.length())
+				return -1;
+			char a = key.charAt(i), b = Character.toLowerCase(prefix.charAt(i));
+			if(a != b)
+				return a - b;
+		}
+		if(key.length() == length)
+			return -1;
+		char a = key.charAt(length);
+		if(a != last)
+			return a - last;
+		return key.length() - length - 1;
+	}
+
+	private static boolean isFolded(String node) {
+		for(int i = 0; i < node.length(); i++) {
+			char c = node.charAt(i);
+			if(Character.toLowerCase(c) != c)
+				return false;
+		}
+		return true;
 	}
 
 	public boolean getBoolean(String node) {
@@ -294,26 +491,7 @@ public final class Config {
 	}
 
 	public static long getTimeValue(String value) {
-		Matcher matcher = timePattern.matcher(value);
-		if(!matcher.matches())
-			throw new IllegalArgumentException("Invalid value");
-		long millis = 0;
-		millis += toMillis(matcher.group(1), TimeUnit.DAYS);
-		millis += toMillis(matcher.group(2), TimeUnit.HOURS);
-		millis += toMillis(matcher.group(3), TimeUnit.MINUTES);
-		millis += toMillis(matcher.group(4), TimeUnit.SECONDS);
-		millis += toMillis(matcher.group(5), TimeUnit.MILLISECONDS);
-		return millis;
-	}
-
-	private static long toMillis(String value, TimeUnit unit) {
-		if(value != null && !value.isEmpty()) {
-			Matcher matcher = Pattern.compile("[0-9]+").matcher(value);
-			if(!matcher.find())
-				return 0;
-			return unit.toMillis(Integer.parseInt(matcher.group()));
-		}
-		return 0;
+		return DurationCodec.parse(value);
 	}
 
 	public boolean isTime(String node) {
@@ -324,6 +502,6 @@ public final class Config {
 	}
 
 	public static boolean isTimeValue(String value) {
-		return timePattern.matcher(value).matches();
+		return DurationCodec.isValid(value);
 	}
 }
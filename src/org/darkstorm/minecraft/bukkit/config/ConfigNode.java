@@ -10,4 +10,10 @@ public interface ConfigNode {
 	public List<String> getComments();
 
 	public boolean isValid(String value);
+
+	/**
+	 * @return The validator for the node's value, which isValid() should
+	 *         agree with.
+	 */
+	public ConfigValidator getValidator();
 }
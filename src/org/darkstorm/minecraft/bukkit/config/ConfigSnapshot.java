@@ -0,0 +1,183 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.util.*;
+
+/**
+ * Immutable, pre-parsed view of a set of config nodes. Each value is parsed
+ * once, when the snapshot is taken, as the type its validator declares:
+ * booleans, durations, whole numbers (also readable as floating point) and
+ * floating point numbers. Values with any other validator are only available
+ * as strings and lists. The results are stored in arrays indexed by the
+ * node's position in the array it was created from (its ordinal for enum
+ * nodes). Reads are array loads and never re-parse or allocate.
+ */
+public final class ConfigSnapshot {
+	private static final int BOOLEAN = 1, LONG = 2, DOUBLE = 4, TIME = 8;
+
+	private final ConfigNode[] nodes;
+	private final Map<ConfigNode, Integer> indices;
+
+	private final String[] strings;
+	private final int[] types;
+	private final boolean[] booleans;
+	private final long[] longs, times;
+	private final double[] doubles;
+	private final List<List<String>> lists;
+
+	public ConfigSnapshot(Config config, ConfigNode[] nodes) {
+		if(config == null || nodes == null)
+			throw new NullPointerException();
+		int length = nodes.length;
+		this.nodes = nodes.clone();
+		indices = new IdentityHashMap<ConfigNode, Integer>(length);
+		strings = new String[length];
+		types = new int[length];
+		booleans = new boolean[length];
+		longs = new long[length];
+		times = new long[length];
+		doubles = new double[length];
+		List<List<String>> lists = new ArrayList<List<String>>(length);
+		for(int i = 0; i < length; i++) {
+			ConfigNode node = this.nodes[i];
+			if(node == null)
+				throw new NullPointerException();
+			indices.put(node, i);
+
+			String value = config.getString(node);
+			strings[i] = value;
+			lists.add(Config.getStringListValue(value));
+			// Values that failed validation were replaced by their
+			// defaults, but check anyway rather than trust it
+			int type = getTypes(node.getValidator());
+			if((type & BOOLEAN) != 0 && Config.isBooleanValue(value)) {
+				types[i] |= BOOLEAN;
+				booleans[i] = Config.getBooleanValue(value);
+			}
+			if((type & LONG) != 0 && Config.isLongValue(value)) {
+				types[i] |= LONG;
+				longs[i] = Config.getLongValue(value);
+			}
+			if((type & DOUBLE) != 0 && Config.isDoubleValue(value)) {
+				types[i] |= DOUBLE;
+				doubles[i] = Config.getDoubleValue(value);
+			}
+			if((type & TIME) != 0) {
+				long time = DurationCodec.tryParse(value);
+				if(time >= 0) {
+					types[i] |= TIME;
+					times[i] = time;
+				}
+			}
+		}
+		this.lists = Collections.unmodifiableList(lists);
+	}
+
+	private static int getTypes(ConfigValidator validator) {
+		if(validator == ConfigValidators.BOOLEAN)
+			return BOOLEAN;
+		if(validator == ConfigValidators.DURATION)
+			return TIME;
+		if(ConfigValidators.isWholeNumber(validator))
+			return LONG | DOUBLE;
+		if(ConfigValidators.isNumber(validator))
+			return DOUBLE;
+		return 0;
+	}
+
+	public List<ConfigNode> getNodes() {
+		return Collections.unmodifiableList(Arrays.asList(nodes));
+	}
+
+	public String getString(ConfigNode node) {
+		return strings[indexOf(node)];
+	}
+
+	public boolean getBoolean(ConfigNode node) {
+		int index = checkType(node, BOOLEAN);
+		return booleans[index];
+	}
+
+	public boolean isBoolean(ConfigNode node) {
+		return is(node, BOOLEAN);
+	}
+
+	public int getInt(ConfigNode node) {
+		int index = checkType(node, LONG);
+		long value = longs[index];
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid value");
+		return (int) value;
+	}
+
+	public boolean isInt(ConfigNode node) {
+		if(!is(node, LONG))
+			return false;
+		long value = longs[indexOf(node)];
+		return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
+
+	public long getLong(ConfigNode node) {
+		int index = checkType(node, LONG);
+		return longs[index];
+	}
+
+	public boolean isLong(ConfigNode node) {
+		return is(node, LONG);
+	}
+
+	public double getDouble(ConfigNode node) {
+		int index = checkType(node, DOUBLE);
+		return doubles[index];
+	}
+
+	public boolean isDouble(ConfigNode node) {
+		return is(node, DOUBLE);
+	}
+
+	public float getFloat(ConfigNode node) {
+		int index = checkType(node, DOUBLE);
+		return (float) doubles[index];
+	}
+
+	public boolean isFloat(ConfigNode node) {
+		return is(node, DOUBLE);
+	}
+
+	public long getTime(ConfigNode node) {
+		int index = checkType(node, TIME);
+		return times[index];
+	}
+
+	public boolean isTime(ConfigNode node) {
+		return is(node, TIME);
+	}
+
+	public List<String> getStringList(ConfigNode node) {
+		return lists.get(indexOf(node));
+	}
+
+	private boolean is(ConfigNode node, int type) {
+		return (types[indexOf(node)] & type) != 0;
+	}
+
+	private int checkType(ConfigNode node, int type) {
+		int index = indexOf(node);
+		if((types[index] & type) == 0)
+			throw new IllegalArgumentException("Invalid value");
+		return index;
+	}
+
+	private int indexOf(ConfigNode node) {
+		if(node == null)
+			throw new NullPointerException();
+		if(node instanceof Enum<?>) {
+			int ordinal = ((Enum<?>) node).ordinal();
+			if(ordinal < nodes.length && nodes[ordinal] == node)
+				return ordinal;
+		}
+		Integer index = indices.get(node);
+		if(index == null)
+			throw new IllegalArgumentException("Node '" + node.getNode() + "' is not part of this snapshot");
+		return index;
+	}
+}
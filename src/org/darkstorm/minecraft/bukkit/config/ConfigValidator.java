@@ -0,0 +1,13 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+/**
+ * Checks the value of a config node. Validators are run once per node when a
+ * Config is created; reads use the cached result.
+ */
+public interface ConfigValidator {
+	/**
+	 * @return Null if the value is valid, otherwise what was expected, e.g.
+	 *         "expected true or false".
+	 */
+	public String validate(String value);
+}
@@ -0,0 +1,128 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.util.*;
+
+/**
+ * Validators for the common value types.
+ */
+public final class ConfigValidators {
+	public static final ConfigValidator ANY = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			return null;
+		}
+	};
+	public static final ConfigValidator NOT_EMPTY = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			return value.trim().isEmpty() ? "expected a value" : null;
+		}
+	};
+	public static final ConfigValidator BOOLEAN = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			return Config.isBooleanValue(value) ? null : "expected true or false";
+		}
+	};
+	public static final ConfigValidator DURATION = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			return DurationCodec.isValid(value) ? null : "expected a duration in the format 0d0h0m0s0ms";
+		}
+	};
+
+	private ConfigValidators() {
+	}
+
+	/**
+	 * @return A validator accepting the names of the constants of the enum,
+	 *         ignoring case.
+	 */
+	public static <E extends Enum<E>> ConfigValidator enumeration(final Class<E> type) {
+		final Set<String> names = new HashSet<String>();
+		for(E constant : type.getEnumConstants())
+			names.add(constant.name().toUpperCase(Locale.ENGLISH));
+		final String error = "expected a " + type.getSimpleName() + " name";
+		return new ConfigValidator() {
+			@Override
+			public String validate(String value) {
+				return names.contains(value.toUpperCase(Locale.ENGLISH)) ? null : error;
+			}
+		};
+	}
+
+	public static ConfigValidator intRange(int min, int max) {
+		if(min > max)
+			throw new IllegalArgumentException("Invalid range");
+		return new IntRange(min, max);
+	}
+
+	public static ConfigValidator floatRange(float min, float max) {
+		if(min > max)
+			throw new IllegalArgumentException("Invalid range");
+		return new FloatRange(min, max, false);
+	}
+
+	/**
+	 * @return A validator accepting 0, usually meaning off, or a number above
+	 *         min up to max.
+	 */
+	public static ConfigValidator floatAboveOrZero(float min, float max) {
+		if(min < 0 || min > max)
+			throw new IllegalArgumentException("Invalid range");
+		return new FloatRange(min, max, true);
+	}
+
+	static boolean isWholeNumber(ConfigValidator validator) {
+		return validator instanceof IntRange;
+	}
+
+	static boolean isNumber(ConfigValidator validator) {
+		return validator instanceof IntRange || validator instanceof FloatRange;
+	}
+
+	private static final class IntRange implements ConfigValidator {
+		private final int min, max;
+		private final String error;
+
+		public IntRange(int min, int max) {
+			this.min = min;
+			this.max = max;
+			error = max == Integer.MAX_VALUE ? "expected a whole number of at least " + min : "expected a whole number from " + min + " to " + max;
+		}
+
+		@Override
+		public String validate(String value) {
+			if(!Config.isIntValue(value))
+				return error;
+			int number = Config.getIntValue(value);
+			return number >= min && number <= max ? null : error;
+		}
+	}
+
+	private static final class FloatRange implements ConfigValidator {
+		private final float min, max;
+		private final boolean aboveOrZero;
+		private final String error;
+
+		public FloatRange(float min, float max, boolean aboveOrZero) {
+			this.min = min;
+			this.max = max;
+			this.aboveOrZero = aboveOrZero;
+			if(aboveOrZero)
+				error = max == Float.MAX_VALUE ? "expected 0 or a number above " + min : "expected 0 or a number above " + min + " up to " + max;
+			else
+				error = "expected a number from " + min + " to " + max;
+		}
+
+		@Override
+		public String validate(String value) {
+			if(!Config.isFloatValue(value))
+				return error;
+			float number = Config.getFloatValue(value);
+			if(aboveOrZero)
+				return number == 0 || (number > min && number <= max) ? null : error;
+			return number >= min && number <= max ? null : error;
+		}
+	}
+}
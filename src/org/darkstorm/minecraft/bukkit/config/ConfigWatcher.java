@@ -0,0 +1,91 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+/**
+ * Watches a single file from a daemon thread and reports changes to a
+ * listener on that thread. Editors tend to save in several steps, so events
+ * are collected until the file has been quiet for a short while and then
+ * reported once.
+ */
+public final class ConfigWatcher implements Runnable {
+	private static final long QUIET_PERIOD = 250;
+
+	private final File file;
+	private final Listener listener;
+	private final Logger logger;
+
+	private WatchService watchService;
+	private Thread thread;
+
+	public ConfigWatcher(File file, Listener listener, Logger logger) {
+		if(file == null || listener == null)
+			throw new NullPointerException();
+		this.file = file.getAbsoluteFile();
+		this.listener = listener;
+		this.logger = logger;
+	}
+
+	public synchronized void start() throws IOException {
+		if(thread != null)
+			throw new IllegalStateException("Watcher already started");
+		watchService = FileSystems.getDefault().newWatchService();
+		file.getParentFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		thread = new Thread(this, "ServerRestarter config watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if(thread == null)
+			return;
+		try {
+			watchService.close();
+		} catch(IOException exception) {}
+		thread.interrupt();
+		thread = null;
+	}
+
+	@Override
+	public void run() {
+		WatchService watchService = this.watchService;
+		try {
+			while(true) {
+				if(!poll(watchService.take()))
+					continue;
+				WatchKey key;
+				while((key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null)
+					poll(key);
+				try {
+					listener.onChange(file);
+				} catch(RuntimeException exception) {
+					if(logger != null)
+						logger.log(Level.WARNING, "Unable to apply changes to " + file.getName(), exception);
+				}
+			}
+		} catch(InterruptedException exception) {
+		} catch(ClosedWatchServiceException exception) {}
+	}
+
+	private boolean poll(WatchKey key) {
+		boolean changed = false;
+		// Atomic saves replace the file, which shows up as a create
+		for(WatchEvent<?> event : key.pollEvents()) {
+			Object context = event.context();
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || (context instanceof Path && file.getName().equals(context.toString())))
+				changed = true;
+		}
+		key.reset();
+		return changed;
+	}
+
+	public static interface Listener {
+		/**
+		 * Called on the watcher thread after the file changed.
+		 */
+		public void onChange(File file);
+	}
+}
@@ -0,0 +1,144 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * Persists changes to individual nodes of a YAML file from a background
+ * executor. Changes made within the delay of each other are coalesced into a
+ * single write; a node changed several times is only written with its latest
+ * value. Writes patch the file through YamlDocument and replace it atomically,
+ * so comments and unrelated nodes are left alone and a crash mid-write never
+ * leaves a truncated file. A failed write is retried with the delay doubled
+ * each time, up to a minute.
+ */
+public final class ConfigWriteBehind {
+	private static final long MAX_RETRY_DELAY = 60000;
+
+	private final File file;
+	private final ScheduledExecutorService executor;
+	private final long delay;
+	private final Logger logger;
+
+	private Map<String, String> pending = new LinkedHashMap<String, String>();
+	private boolean scheduled;
+	private long retryDelay;
+
+	private long changes, writes, failedWrites;
+	private long lastWriteTime, lastWriteDuration;
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * @param delay
+	 *            Milliseconds to wait for further changes before writing.
+	 */
+	public ConfigWriteBehind(File file, ScheduledExecutorService executor, long delay, Logger logger) {
+		if(file == null || executor == null)
+			throw new NullPointerException();
+		this.file = file;
+		this.executor = executor;
+		this.delay = delay;
+		this.logger = logger;
+	}
+
+	/**
+	 * Queues a change and returns immediately.
+	 */
+	public synchronized void set(String node, String value) {
+		if(node == null || value == null)
+			throw new NullPointerException();
+		pending.put(node, value);
+		changes++;
+		if(!scheduled)
+			schedule(delay);
+	}
+
+	private void schedule(long delay) {
+		scheduled = true;
+		try {
+			executor.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+		} catch(RejectedExecutionException exception) {
+			scheduled = false;
+		}
+	}
+
+	/**
+	 * Writes any pending changes on the calling thread.
+	 */
+	public void flush() {
+		Map<String, String> changes;
+		synchronized(this) {
+			scheduled = false;
+			if(pending.isEmpty())
+				return;
+			changes = pending;
+			pending = new LinkedHashMap<String, String>();
+		}
+		long start = System.nanoTime();
+		try {
+			YamlDocument document = YamlDocument.load(file);
+			for(Map.Entry<String, String> change : changes.entrySet())
+				document.set(change.getKey(), change.getValue());
+			document.save(file);
+			synchronized(this) {
+				writes++;
+				retryDelay = 0;
+				lastWriteTime = System.currentTimeMillis();
+				lastWriteDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			}
+		} catch(IOException exception) {
+			synchronized(this) {
+				failedWrites++;
+				// Keep the changes for the next write unless they were
+				// superseded in the meantime
+				for(Map.Entry<String, String> change : changes.entrySet())
+					if(!pending.containsKey(change.getKey()))
+						pending.put(change.getKey(), change.getValue());
+				retryDelay = Math.min(MAX_RETRY_DELAY, Math.max(1, retryDelay == 0 ? delay : retryDelay) * 2);
+				if(!scheduled)
+					schedule(retryDelay);
+			}
+			if(logger != null)
+				logger.log(Level.WARNING, "Unable to save changes to " + file.getName(), exception);
+		}
+	}
+
+	public synchronized int getPendingChanges() {
+		return pending.size();
+	}
+
+	/**
+	 * @return The number of changes queued since creation.
+	 */
+	public synchronized long getChanges() {
+		return changes;
+	}
+
+	public synchronized long getWrites() {
+		return writes;
+	}
+
+	public synchronized long getFailedWrites() {
+		return failedWrites;
+	}
+
+	/**
+	 * @return When the last successful write finished, in epoch milliseconds,
+	 *         or 0 if there was none.
+	 */
+	public synchronized long getLastWriteTime() {
+		return lastWriteTime;
+	}
+
+	public synchronized long getLastWriteDuration() {
+		return lastWriteDuration;
+	}
+}
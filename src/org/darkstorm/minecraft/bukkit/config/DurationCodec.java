@@ -0,0 +1,156 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and formats durations in the 0d0h0m0s0ms format used by the config
+ * and commands. Every unit is optional but they must appear in that order;
+ * units are case-insensitive and the empty string is zero. Parsing does not
+ * allocate and rejects values that do not fit in a long.
+ */
+public final class DurationCodec {
+	private static final long[] unitMillis = { TimeUnit.DAYS.toMillis(1), TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(1), TimeUnit.SECONDS.toMillis(1), 1 };
+	private static final String[] unitSuffixes = { "d", "h", "m", "s", "ms" };
+	private static final String[] unitWords = { "day", "hour", "minute", "second", "millisecond" };
+
+	private static final int DAYS = 0, HOURS = 1, MINUTES = 2, SECONDS = 3, MILLISECONDS = 4;
+
+	private DurationCodec() {
+	}
+
+	public static long parse(CharSequence value) {
+		if(value == null)
+			throw new NullPointerException();
+		return parse(value, 0, value.length());
+	}
+
+	public static long parse(CharSequence value, int start, int end) {
+		long millis = tryParse(value, start, end);
+		if(millis < 0)
+			throw new IllegalArgumentException("Invalid value");
+		return millis;
+	}
+
+	/**
+	 * @return The duration in milliseconds, or -1 if the value is not a valid
+	 *         duration.
+	 */
+	public static long tryParse(CharSequence value) {
+		if(value == null)
+			throw new NullPointerException();
+		return tryParse(value, 0, value.length());
+	}
+
+	public static long tryParse(CharSequence value, int start, int end) {
+		if(value == null)
+			throw new NullPointerException();
+		if(start < 0 || end > value.length() || start > end)
+			throw new IndexOutOfBoundsException();
+		long total = 0;
+		int nextUnit = DAYS;
+		int index = start;
+		while(index < end) {
+			int digitsStart = index;
+			long amount = 0;
+			char c;
+			while(index < end && (c = value.charAt(index)) >= '0' && c <= '9') {
+				int digit = c - '0';
+				if(amount > (Long.MAX_VALUE - digit) / 10)
+					return -1;
+				amount = amount * 10 + digit;
+				index++;
+			}
+			if(index == digitsStart || index == end)
+				return -1;
+
+			int unit;
+			c = Character.toLowerCase(value.charAt(index++));
+			if(c == 'd')
+				unit = DAYS;
+			else if(c == 'h')
+				unit = HOURS;
+			else if(c == 's')
+				unit = SECONDS;
+			else if(c == 'm') {
+				if(index < end && Character.toLowerCase(value.charAt(index)) == 's') {
+					unit = MILLISECONDS;
+					index++;
+				} else
+					unit = MINUTES;
+			} else
+				return -1;
+			if(unit < nextUnit)
+				return -1;
+			nextUnit = unit + 1;
+
+			if(amount > Long.MAX_VALUE / unitMillis[unit])
+				return -1;
+			amount *= unitMillis[unit];
+			if(total > Long.MAX_VALUE - amount)
+				return -1;
+			total += amount;
+		}
+		return total;
+	}
+
+	public static boolean isValid(CharSequence value) {
+		return tryParse(value) >= 0;
+	}
+
+	/**
+	 * @return The duration in the compact config format, e.g. "1h30m".
+	 */
+	public static String format(long millis) {
+		StringBuilder builder = new StringBuilder(16);
+		format(millis, builder);
+		return builder.toString();
+	}
+
+	public static void format(long millis, StringBuilder builder) {
+		if(millis < 0)
+			throw new IllegalArgumentException("Negative duration");
+		if(millis == 0) {
+			builder.append("0ms");
+			return;
+		}
+		for(int unit = DAYS; unit <= MILLISECONDS; unit++) {
+			long amount = millis / unitMillis[unit];
+			if(amount > 0) {
+				builder.append(amount).append(unitSuffixes[unit]);
+				millis -= amount * unitMillis[unit];
+			}
+		}
+	}
+
+	/**
+	 * Appends the duration as words, e.g. "1 minute 30 seconds". Milliseconds
+	 * are only shown for durations under a second, and negative durations
+	 * are treated as zero.
+	 */
+	public static void formatWords(long millis, StringBuilder builder) {
+		if(millis < 0)
+			millis = 0;
+		int length = builder.length();
+		for(int unit = DAYS; unit <= SECONDS; unit++) {
+			long amount = millis / unitMillis[unit];
+			if(amount > 0) {
+				appendWords(builder, length, amount, unitWords[unit]);
+				millis -= amount * unitMillis[unit];
+			}
+		}
+		if(builder.length() == length) {
+			if(millis > 0)
+				appendWords(builder, length, millis, unitWords[MILLISECONDS]);
+			else
+				builder.append("0 seconds");
+		}
+	}
+
+	private static void appendWords(StringBuilder builder, int start, long amount, String unit) {
+		if(builder.length() > start)
+			builder.append(' ');
+		builder.append(amount).append(' ').append(unit);
+		if(amount != 1)
+			builder.append('s');
+	}
+}
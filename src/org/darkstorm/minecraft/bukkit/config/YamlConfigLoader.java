@@ -25,7 +25,7 @@ public class YamlConfigLoader implements ConfigLoader {
 		CommentedYamlConfiguration configuration = new CommentedYamlConfiguration();
 		try {
 			if(!file.exists())
-				saveDefaults(configuration, defaultNodes);
+				saveDefaults(defaultNodes);
 			configuration.load(file);
 		} catch(FileNotFoundException exception) {
 			if(logger != null)
@@ -37,6 +37,21 @@ public class YamlConfigLoader implements ConfigLoader {
 			if(logger != null)
 				logger.info("Error: syntax error in configuration");
 		}
+		return createConfig(configuration, defaultNodes, logger);
+	}
+
+	/**
+	 * Loads the file again. Unlike load(), this fails rather than falling back
+	 * to the defaults if the file is missing or cannot be parsed, so a broken
+	 * edit can be ignored instead of applied.
+	 */
+	public Config reload(ConfigNode[] defaultNodes, Logger logger) throws IOException, InvalidConfigurationException {
+		CommentedYamlConfiguration configuration = new CommentedYamlConfiguration();
+		configuration.load(file);
+		return createConfig(configuration, defaultNodes, logger);
+	}
+
+	private Config createConfig(CommentedYamlConfiguration configuration, ConfigNode[] defaultNodes, Logger logger) {
 		Map<String, String> nodes = new HashMap<String, String>();
 		Map<String, Object> configValues = configuration.getValues(true);
 		for(String node : configValues.keySet()) {
@@ -51,7 +66,10 @@ public class YamlConfigLoader implements ConfigLoader {
 				}
 				value = builder;
 			}
-			nodes.put(node.toLowerCase(), value.toString());
+			// Last one in the file wins, as for a key repeated as is
+			String key = node.toLowerCase(Locale.ENGLISH);
+			if(nodes.put(key, value.toString()) != null && logger != null)
+				logger.warning("Config node '" + key + "' is given more than once, using the last one");
 		}
 		for(ConfigNode node : defaultNodes) {
 			String path = node.getNode();
@@ -61,15 +79,31 @@ public class YamlConfigLoader implements ConfigLoader {
 			if(value == null) {
 				if(logger != null)
 					logger.info("Error: config node '" + node.getNode() + "' not found");
-				value = node.getDefaultValue();
-			} else if(!node.isValid(value.toString())) {
-				if(logger != null)
-					logger.info("Error: invalid config node '" + node.getNode() + "'");
-				value = node.getDefaultValue();
+				nodes.put(path, node.getDefaultValue());
 			}
-			nodes.put(path, value.toString());
 		}
-		return new Config(nodes);
+		Config config = new Config(nodes, defaultNodes);
+		if(logger != null) {
+			for(String warning : config.getWarnings())
+				logger.warning(warning);
+			if(!config.getErrors().isEmpty())
+				logger.info(getErrorMessage(config));
+		}
+		return config;
+	}
+
+	/**
+	 * @return Every validation error of the config in one message, or null if
+	 *         there are none.
+	 */
+	public static String getErrorMessage(Config config) {
+		List<String> errors = config.getErrors();
+		if(errors.isEmpty())
+			return null;
+		StringBuilder builder = new StringBuilder("Error: ").append(errors.size()).append(" invalid config node(s), using the default for:");
+		for(String error : errors)
+			builder.append("\n  ").append(error);
+		return builder.toString();
 	}
 
 	@Override
@@ -77,30 +111,27 @@ public class YamlConfigLoader implements ConfigLoader {
 		save(config, nodes, null);
 	}
 
+	/**
+	 * Updates the nodes that changed in place, keeping everything else in the
+	 * file as it was. Missing nodes are added along with their comments.
+	 */
 	@Override
 	public void save(Config config, ConfigNode[] nodes, Logger logger) {
-		CommentedYamlConfiguration configuration = new CommentedYamlConfiguration();
-		for(ConfigNode node : nodes) {
-			configuration.set(node.getNode(), config.getString(node));
-			List<String> comments = node.getComments();
-			if(!comments.isEmpty())
-				configuration.addComment(node.getNode(), comments.toArray(new String[comments.size()]));
-		}
 		try {
-			configuration.save(file);
+			YamlDocument document = YamlDocument.load(file);
+			for(ConfigNode node : nodes)
+				document.set(node.getNode(), config.getString(node), node.getComments());
+			document.save(file);
 		} catch(IOException exception) {
 			if(logger != null)
 				logger.info("Error: unable to save configuration");
 		}
 	}
 
-	private void saveDefaults(CommentedYamlConfiguration configuration, ConfigNode[] defaultNodes) throws IOException {
-		for(ConfigNode node : defaultNodes) {
-			configuration.set(node.getNode(), node.getDefaultValue());
-			List<String> comments = node.getComments();
-			if(!comments.isEmpty())
-				configuration.addComment(node.getNode(), comments.toArray(new String[comments.size()]));
-		}
-		configuration.save(file);
+	private void saveDefaults(ConfigNode[] defaultNodes) throws IOException {
+		YamlDocument document = YamlDocument.load(file);
+		for(ConfigNode node : defaultNodes)
+			document.set(node.getNode(), node.getDefaultValue(), node.getComments());
+		document.save(file);
 	}
 }
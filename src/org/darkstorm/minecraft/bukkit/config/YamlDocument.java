@@ -0,0 +1,551 @@
+package org.darkstorm.minecraft.bukkit.config;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Line-preserving view of a YAML file. The original text is kept as is and
+ * only indexed: each node records where its value starts and ends. Changing
+ * a node replaces just that span and new nodes are inserted after their
+ * closest existing parent, so comments, ordering and formatting written by
+ * hand survive a save. Only the block mapping subset used by config files is
+ * understood; anything else is carried through untouched.
+ */
+public final class YamlDocument {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private String text;
+	private String lineSeparator;
+
+	private Entry root;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Set<Entry> changed = new LinkedHashSet<Entry>();
+	private final Map<String, Addition> added = new HashMap<String, Addition>();
+	private final Set<Entry> anchors = new LinkedHashSet<Entry>();
+
+	private YamlDocument(String text) {
+		reset(text);
+	}
+
+	public static YamlDocument parse(String text) {
+		if(text == null)
+			throw new NullPointerException();
+		return new YamlDocument(text);
+	}
+
+	/**
+	 * @return The document for the file, or an empty document if it does not
+	 *         exist yet.
+	 */
+	public static YamlDocument load(File file) throws IOException {
+		if(!file.exists())
+			return new YamlDocument("");
+		return new YamlDocument(new String(Files.readAllBytes(file.toPath()), UTF_8));
+	}
+
+	public boolean contains(String path) {
+		String key = path.toLowerCase(Locale.ENGLISH);
+		return entries.containsKey(key) || added.containsKey(key);
+	}
+
+	/**
+	 * @return The node's value as a string, with lists joined by commas, or
+	 *         null if the node does not exist or is a section.
+	 */
+	public String getValue(String path) {
+		String key = path.toLowerCase(Locale.ENGLISH);
+		Entry entry = entries.get(key);
+		if(entry != null) {
+			if(entry.value != null)
+				return entry.value;
+			return entry.hasChildren ? null : getOriginalValue(entry);
+		}
+		Addition addition = added.get(key);
+		return addition != null ? addition.value : null;
+	}
+
+	public void set(String path, String value) {
+		set(path, value, Collections.<String> emptyList());
+	}
+
+	/**
+	 * Sets a node's value. The comments are only written if the node has to
+	 * be added; existing nodes keep whatever comments they already have.
+	 */
+	public void set(String path, String value, List<String> comments) {
+		if(path == null || value == null || comments == null)
+			throw new NullPointerException();
+		String key = path.toLowerCase(Locale.ENGLISH);
+		Entry anchor = root;
+		Addition parent = null;
+		int start = 0, dot;
+		do {
+			dot = path.indexOf('.', start);
+			int end = dot != -1 ? dot : path.length();
+			String prefix = key.substring(0, end);
+			if(parent == null) {
+				Entry entry = entries.get(prefix);
+				if(entry != null) {
+					if(dot == -1) {
+						setValue(entry, path, value);
+						return;
+					}
+					if(!entry.hasChildren && entry.spanEnd > entry.valueStart)
+						throw new IllegalArgumentException("Node '" + prefix + "' is not a section");
+					anchor = entry;
+					start = dot + 1;
+					continue;
+				}
+			}
+			Addition addition = added.get(prefix);
+			if(addition == null) {
+				addition = new Addition(path.substring(start, end));
+				added.put(prefix, addition);
+				if(parent != null)
+					parent.children.add(addition);
+				else {
+					anchor.additions.add(addition);
+					anchors.add(anchor);
+				}
+			}
+			if(dot == -1) {
+				if(!addition.children.isEmpty())
+					throw new IllegalArgumentException("Node '" + path + "' is a section");
+				addition.value = value;
+				addition.comments = comments;
+			} else if(addition.value != null)
+				throw new IllegalArgumentException("Node '" + prefix + "' is not a section");
+			parent = addition;
+			start = dot + 1;
+		} while(dot != -1);
+	}
+
+	private void setValue(Entry entry, String path, String value) {
+		if(entry.hasChildren)
+			throw new IllegalArgumentException("Node '" + path + "' is a section");
+		if(value.equals(getOriginalValue(entry))) {
+			entry.value = null;
+			changed.remove(entry);
+		} else {
+			entry.value = value;
+			changed.add(entry);
+		}
+	}
+
+	public boolean isModified() {
+		return !changed.isEmpty() || !anchors.isEmpty();
+	}
+
+	/**
+	 * Writes the document if anything changed and makes the written text the
+	 * new original.
+	 */
+	public void save(File file) throws IOException {
+		if(!isModified() && file.exists())
+			return;
+		String rendered = render();
+		AtomicFile.write(file, rendered, UTF_8);
+		reset(rendered);
+	}
+
+	@Override
+	public String toString() {
+		return render();
+	}
+
+	private String render() {
+		if(!isModified())
+			return text;
+		List<Edit> edits = new ArrayList<Edit>(changed.size() + anchors.size());
+		for(Entry entry : changed)
+			edits.add(new Edit(entry, entry.valueStart, entry.spanEnd, false));
+		for(Entry anchor : anchors)
+			edits.add(new Edit(anchor, anchor.subtreeEnd, anchor.subtreeEnd, true));
+		Collections.sort(edits);
+
+		StringBuilder builder = new StringBuilder(text.length() + 64 * edits.size());
+		int position = 0;
+		for(Edit edit : edits) {
+			builder.append(text, position, edit.start);
+			Entry entry = edit.entry;
+			if(edit.insert) {
+				int indent = entry.childIndent != -1 ? entry.childIndent : entry == root ? 0 : entry.indent + 2;
+				appendAdditions(builder, entry.additions, indent);
+			} else {
+				if(text.charAt(edit.start - 1) == ':')
+					builder.append(' ');
+				appendScalar(builder, entry.value);
+			}
+			position = edit.end;
+		}
+		builder.append(text, position, text.length());
+		if(text.isEmpty())
+			builder.append(lineSeparator);
+		return builder.toString();
+	}
+
+	private void appendAdditions(StringBuilder builder, List<Addition> additions, int indent) {
+		for(Addition addition : additions) {
+			if(addition.comments != null) {
+				for(String comment : addition.comments) {
+					newLine(builder, indent);
+					if(!comment.isEmpty())
+						builder.append("# ").append(comment);
+				}
+			}
+			newLine(builder, indent);
+			builder.append(addition.key).append(':');
+			if(addition.value != null) {
+				builder.append(' ');
+				appendScalar(builder, addition.value);
+			} else
+				appendAdditions(builder, addition.children, indent + 2);
+		}
+	}
+
+	private void newLine(StringBuilder builder, int indent) {
+		// Insertions go at the end of a line, except into an empty document
+		if(builder.length() > 0)
+			builder.append(lineSeparator);
+		for(int i = 0; i < indent; i++)
+			builder.append(' ');
+	}
+
+	private void reset(String text) {
+		this.text = text;
+		lineSeparator = text.indexOf("\r\n") != -1 ? "\r\n" : text.indexOf('\n') != -1 ? "\n" : System.getProperty("line.separator");
+		entries.clear();
+		changed.clear();
+		added.clear();
+		anchors.clear();
+		index();
+	}
+
+	private void index() {
+		root = new Entry("", -1);
+		List<Entry> stack = new ArrayList<Entry>();
+		stack.add(root);
+		Entry last = null;
+		int length = text.length();
+		for(int start = 0, end; start < length; start = end + 1) {
+			end = text.indexOf('\n', start);
+			if(end == -1)
+				end = length;
+			int lineEnd = end;
+			if(lineEnd > start && text.charAt(lineEnd - 1) == '\r')
+				lineEnd--;
+			int contentStart = start;
+			while(contentStart < lineEnd && text.charAt(contentStart) == ' ')
+				contentStart++;
+			if(contentStart == lineEnd)
+				continue;
+			root.subtreeEnd = lineEnd;
+			if(text.charAt(contentStart) == '#')
+				continue;
+			int indent = contentStart - start;
+
+			int keyEnd = -1;
+			if(last == null || !last.blockScalar || indent <= last.indent)
+				keyEnd = findKeyEnd(contentStart, lineEnd);
+			if(keyEnd == -1) {
+				// List items and block scalars belong to the node before them
+				if(last != null) {
+					last.spanEnd = lineEnd;
+					for(Entry entry : stack)
+						entry.subtreeEnd = lineEnd;
+				}
+				continue;
+			}
+
+			while(stack.get(stack.size() - 1).indent >= indent)
+				stack.remove(stack.size() - 1);
+			Entry parent = stack.get(stack.size() - 1);
+			if(parent.childIndent == -1)
+				parent.childIndent = indent;
+			parent.hasChildren = true;
+
+			String key = decodeScalar(text, contentStart, keyEnd).toLowerCase(Locale.ENGLISH);
+			Entry entry = new Entry(parent == root ? key : parent.path + "." + key, indent);
+			int valueStart = keyEnd + 1;
+			while(valueStart < lineEnd && text.charAt(valueStart) == ' ')
+				valueStart++;
+			entry.valueStart = valueStart;
+			entry.valueEnd = entry.spanEnd = findValueEnd(valueStart, lineEnd);
+			if(entry.valueEnd > valueStart) {
+				char first = text.charAt(valueStart);
+				entry.blockScalar = first == '|' || first == '>';
+			}
+			stack.add(entry);
+			for(Entry ancestor : stack)
+				ancestor.subtreeEnd = lineEnd;
+			entries.put(entry.path, entry);
+			last = entry;
+		}
+	}
+
+	/**
+	 * @return The index of the colon ending the key on this line, or -1 if
+	 *         the line is not a key.
+	 */
+	private int findKeyEnd(int start, int end) {
+		char first = text.charAt(start);
+		if(first == '-' && (start + 1 == end || text.charAt(start + 1) == ' '))
+			return -1;
+		int index = start;
+		if(first == '\'' || first == '"') {
+			index = findQuoteEnd(start, end);
+			if(index == -1)
+				return -1;
+		}
+		for(; index < end; index++) {
+			char c = text.charAt(index);
+			if(c == ':' && (index + 1 == end || text.charAt(index + 1) == ' '))
+				return index;
+			if(c == '#' && text.charAt(index - 1) == ' ')
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The end of the value, excluding any trailing comment.
+	 */
+	private int findValueEnd(int start, int end) {
+		if(start == end)
+			return end;
+		char first = text.charAt(start);
+		if(first == '#')
+			return start;
+		if(first == '\'' || first == '"') {
+			int quoteEnd = findQuoteEnd(start, end);
+			if(quoteEnd != -1)
+				return quoteEnd;
+		}
+		int valueEnd = end;
+		for(int index = start + 1; index < end; index++) {
+			if(text.charAt(index) == '#' && text.charAt(index - 1) == ' ') {
+				valueEnd = index;
+				break;
+			}
+		}
+		while(valueEnd > start && text.charAt(valueEnd - 1) == ' ')
+			valueEnd--;
+		return valueEnd;
+	}
+
+	/**
+	 * @return The index after the closing quote, or -1 if it is not closed on
+	 *         this line.
+	 */
+	private int findQuoteEnd(int start, int end) {
+		char quote = text.charAt(start);
+		for(int index = start + 1; index < end; index++) {
+			char c = text.charAt(index);
+			if(quote == '"' && c == '\\')
+				index++;
+			else if(c == quote) {
+				if(quote == '\'' && index + 1 < end && text.charAt(index + 1) == '\'')
+					index++;
+				else
+					return index + 1;
+			}
+		}
+		return -1;
+	}
+
+	private String getOriginalValue(Entry entry) {
+		if(entry.valueEnd > entry.valueStart && !entry.blockScalar) {
+			if(text.charAt(entry.valueStart) == '[' && text.charAt(entry.valueEnd - 1) == ']')
+				return joinList(text.substring(entry.valueStart + 1, entry.valueEnd - 1).split(","));
+			return decodeScalar(text, entry.valueStart, entry.valueEnd);
+		}
+		if(entry.spanEnd == entry.valueEnd)
+			return entry.valueEnd > entry.valueStart ? "" : null;
+
+		String[] lines = text.substring(entry.valueEnd, entry.spanEnd).trim().split("\r?\n");
+		if(!entry.blockScalar) {
+			for(int i = 0; i < lines.length; i++) {
+				String line = lines[i].trim();
+				lines[i] = line.startsWith("-") ? line.substring(1) : line;
+			}
+			return joinList(lines);
+		}
+		boolean folded = text.charAt(entry.valueStart) == '>';
+		StringBuilder builder = new StringBuilder();
+		for(String line : lines) {
+			if(builder.length() > 0)
+				builder.append(folded ? ' ' : '\n');
+			builder.append(line.trim());
+		}
+		return builder.toString();
+	}
+
+	private static String joinList(String[] items) {
+		StringBuilder builder = new StringBuilder();
+		for(String item : items) {
+			item = item.trim();
+			if(item.isEmpty())
+				continue;
+			if(builder.length() > 0)
+				builder.append(',');
+			builder.append(decodeScalar(item, 0, item.length()));
+		}
+		return builder.toString();
+	}
+
+	private static String decodeScalar(String text, int start, int end) {
+		while(end > start && text.charAt(end - 1) == ' ')
+			end--;
+		if(end - start < 2)
+			return text.substring(start, end);
+		char quote = text.charAt(start);
+		if(quote != '\'' && quote != '"' || text.charAt(end - 1) != quote)
+			return text.substring(start, end);
+		StringBuilder builder = new StringBuilder(end - start);
+		for(int index = start + 1; index < end - 1; index++) {
+			char c = text.charAt(index);
+			if(quote == '\'' && c == '\'')
+				index++;
+			else if(quote == '"' && c == '\\' && index + 1 < end - 1) {
+				c = text.charAt(++index);
+				switch(c) {
+				case 'n':
+					c = '\n';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'u':
+					if(index + 4 < end - 1) {
+						c = (char) Integer.parseInt(text.substring(index + 1, index + 5), 16);
+						index += 4;
+					}
+					break;
+				}
+			}
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+
+	private static void appendScalar(StringBuilder builder, String value) {
+		if(isPlain(value)) {
+			builder.append(value);
+			return;
+		}
+		boolean control = false;
+		for(int i = 0; i < value.length() && !control; i++)
+			control = value.charAt(i) < ' ';
+		if(!control) {
+			builder.append('\'');
+			for(int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if(c == '\'')
+					builder.append('\'');
+				builder.append(c);
+			}
+			builder.append('\'');
+			return;
+		}
+		builder.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if(c == '\n')
+				builder.append("\\n");
+			else if(c == '\t')
+				builder.append("\\t");
+			else if(c == '\r')
+				builder.append("\\r");
+			else if(c < ' ')
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+		builder.append('"');
+	}
+
+	/**
+	 * @return Whether the value can be written without quotes and still be
+	 *         read back as the same string.
+	 */
+	private static boolean isPlain(String value) {
+		int length = value.length();
+		if(length == 0 || value.charAt(0) == ' ' || value.charAt(length - 1) == ' ' || value.charAt(length - 1) == ':')
+			return false;
+		if("-?:,[]{}#&*!|>'\"%@`~".indexOf(value.charAt(0)) != -1)
+			return false;
+		for(int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if(c < ' ' || (c == ':' && value.charAt(i + 1) == ' ') || (c == '#' && value.charAt(i - 1) == ' '))
+				return false;
+		}
+		String lower = value.toLowerCase(Locale.ENGLISH);
+		if(lower.equals("null") || lower.equals("yes") || lower.equals("no") || lower.equals("on") || lower.equals("off") || lower.equals("y") || lower.equals("n"))
+			return false;
+		char first = value.charAt(0);
+		if((first >= '0' && first <= '9') || first == '+' || first == '.') {
+			// Keep anything YAML might read as a number in another notation
+			// (octal, hex, sexagesimal) as a string, but leave durations alone
+			if(value.matches("(0|[1-9][0-9]*)(\\.[0-9]+)?"))
+				return true;
+			return !value.matches("[0-9a-fA-F+\\-._:xXoO]+");
+		}
+		return true;
+	}
+
+	private static final class Entry {
+		final String path;
+		final int indent;
+		int valueStart, valueEnd, spanEnd, subtreeEnd;
+		int childIndent = -1;
+		boolean hasChildren, blockScalar;
+		String value;
+		final List<Addition> additions = new ArrayList<Addition>(0);
+
+		Entry(String path, int indent) {
+			this.path = path;
+			this.indent = indent;
+		}
+	}
+
+	private static final class Addition {
+		final String key;
+		String value;
+		List<String> comments;
+		final List<Addition> children = new ArrayList<Addition>(0);
+
+		Addition(String key) {
+			this.key = key;
+		}
+	}
+
+	private static final class Edit implements Comparable<Edit> {
+		final Entry entry;
+		final int start, end;
+		final boolean insert;
+
+		Edit(Entry entry, int start, int end, boolean insert) {
+			this.entry = entry;
+			this.start = start;
+			this.end = end;
+			this.insert = insert;
+		}
+
+		@Override
+		public int compareTo(Edit other) {
+			if(start != other.start)
+				return start < other.start ? -1 : 1;
+			if(insert != other.insert)
+				return insert ? 1 : -1;
+			// Children of the deepest section go first so they stay inside it
+			return other.entry.indent - entry.indent;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+/**
+ * Identifies a compiled action by the config node it came from and its
+ * source, so an action is only compiled again when its node's value changes.
+ */
+final class ActionKey {
+	private final String node, value;
+
+	ActionKey(String node, String value) {
+		if(node == null || value == null)
+			throw new NullPointerException();
+		this.node = node;
+		this.value = value;
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if(!(object instanceof ActionKey))
+			return false;
+		ActionKey key = (ActionKey) object;
+		return node.equals(key.node) && value.equals(key.value);
+	}
+
+	@Override
+	public int hashCode() {
+		return node.hashCode() * 31 + value.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return node + ": " + value;
+	}
+}
@@ -0,0 +1,26 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+public class ActionParseException extends Exception {
+	private static final long serialVersionUID = 4120657811432389147L;
+
+	private final String reason;
+	private final int position;
+
+	public ActionParseException(String reason, int position) {
+		super(reason + " at column " + (position + 1));
+		this.reason = reason;
+		this.position = position;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return The zero-based index in the action string where the error was
+	 *         found.
+	 */
+	public int getPosition() {
+		return position;
+	}
+}
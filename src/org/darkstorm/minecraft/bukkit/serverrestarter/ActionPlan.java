@@ -0,0 +1,109 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.OrderDependentAction;
+
+/**
+ * Immutable list of actions sorted by deadline, latest first. A plan is
+ * compiled once and shared by every countdown; a countdown only keeps a
+ * cursor into it.
+ */
+public final class ActionPlan {
+	public static final ActionPlan EMPTY = new ActionPlan(Collections.<Action> emptyList());
+
+	private static final Comparator<Action> deadlineComparator = new DeadlineComparator();
+
+	private final Action[] actions;
+	private final long[] times;
+	private final int[] orderDependent;
+	private final List<Action> actionList;
+
+	public ActionPlan(Collection<? extends Action> actions) {
+		if(actions == null)
+			throw new NullPointerException();
+		Action[] sorted = actions.toArray(new Action[actions.size()]);
+		for(Action action : sorted)
+			if(action == null)
+				throw new IllegalArgumentException("Null action in plan");
+		// Stable, so ties that compare equal keep their configured order
+		Arrays.sort(sorted, deadlineComparator);
+
+		this.actions = sorted;
+		times = new long[sorted.length];
+		int orderDependentCount = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			times[i] = sorted[i].getActivationTime();
+			if(sorted[i] instanceof OrderDependentAction)
+				orderDependentCount++;
+		}
+		orderDependent = new int[orderDependentCount];
+		for(int i = 0, j = 0; i < sorted.length; i++)
+			if(sorted[i] instanceof OrderDependentAction)
+				orderDependent[j++] = i;
+		actionList = Collections.unmodifiableList(Arrays.asList(sorted));
+	}
+
+	public int size() {
+		return actions.length;
+	}
+
+	public Action get(int index) {
+		return actions[index];
+	}
+
+	public long getActivationTime(int index) {
+		return times[index];
+	}
+
+	public List<Action> getActions() {
+		return actionList;
+	}
+
+	/**
+	 * @return The index of the first action that is not yet due with the
+	 *         given time remaining. Every action before it is overdue.
+	 */
+	public int seek(long remaining) {
+		int low = 0, high = times.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			// Actions fire once the remaining time drops below their time
+			if(times[mid] > remaining)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	public int getOrderDependentCount() {
+		return orderDependent.length;
+	}
+
+	/**
+	 * @return The plan index of the n-th order dependent action.
+	 */
+	public int getOrderDependentIndex(int n) {
+		return orderDependent[n];
+	}
+
+	/**
+	 * Orders actions by the remaining time at which they fire, latest deadline
+	 * first. Actions sharing a deadline run unordered actions first and then
+	 * order dependent actions by their natural ordering.
+	 */
+	private static final class DeadlineComparator implements Comparator<Action> {
+		@Override
+		public int compare(Action action1, Action action2) {
+			long time1 = action1.getActivationTime(), time2 = action2.getActivationTime();
+			if(time1 != time2)
+				return time1 > time2 ? -1 : 1;
+			boolean ordered1 = action1 instanceof OrderDependentAction, ordered2 = action2 instanceof OrderDependentAction;
+			if(ordered1 && ordered2)
+				return ((OrderDependentAction) action1).compareTo((OrderDependentAction) action2);
+			return ordered1 == ordered2 ? 0 : ordered1 ? 1 : -1;
+		}
+	}
+}
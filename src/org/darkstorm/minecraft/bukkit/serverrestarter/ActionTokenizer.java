@@ -0,0 +1,100 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import org.darkstorm.minecraft.bukkit.config.DurationCodec;
+
+/**
+ * Splits an action string such as "sound:5m:NOTE_PIANO:1.0:2.0" into its
+ * colon-separated arguments in a single left-to-right pass, keeping track of
+ * positions for error reporting.
+ */
+public final class ActionTokenizer {
+	private final String source;
+	private int position, tokenStart;
+
+	public ActionTokenizer(String source) {
+		if(source == null)
+			throw new NullPointerException();
+		this.source = source;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public boolean hasNext() {
+		return position <= source.length();
+	}
+
+	/**
+	 * @return The index at which the most recently read argument starts.
+	 */
+	public int getTokenStart() {
+		return tokenStart;
+	}
+
+	public String next() throws ActionParseException {
+		if(!hasNext())
+			throw new ActionParseException("expected more arguments", source.length());
+		tokenStart = position;
+		int end = source.indexOf(':', position);
+		if(end == -1)
+			end = source.length();
+		position = end + 1;
+		return source.substring(tokenStart, end);
+	}
+
+	/**
+	 * @return Everything after the last argument read, colons included.
+	 */
+	public String rest() throws ActionParseException {
+		if(!hasNext())
+			throw new ActionParseException("expected more arguments", source.length());
+		tokenStart = position;
+		position = source.length() + 1;
+		return source.substring(tokenStart);
+	}
+
+	public long nextTime() throws ActionParseException {
+		if(!hasNext())
+			throw new ActionParseException("expected more arguments", source.length());
+		tokenStart = position;
+		int end = source.indexOf(':', position);
+		if(end == -1)
+			end = source.length();
+		position = end + 1;
+		long time = DurationCodec.tryParse(source, tokenStart, end);
+		if(time < 0)
+			throw error("unknown time value '" + source.substring(tokenStart, end) + "'");
+		return time;
+	}
+
+	public float nextFloat() throws ActionParseException {
+		String token = next();
+		try {
+			return Float.parseFloat(token);
+		} catch(NumberFormatException exception) {
+			throw error("expected a number but found '" + token + "'");
+		}
+	}
+
+	public <E extends Enum<E>> E nextEnum(Class<E> type, String description) throws ActionParseException {
+		String token = next();
+		try {
+			return Enum.valueOf(type, token);
+		} catch(IllegalArgumentException exception) {
+			throw error("unknown " + description + " '" + token + "'");
+		}
+	}
+
+	public void expectEnd() throws ActionParseException {
+		if(hasNext())
+			throw new ActionParseException("unexpected '" + source.substring(position - 1) + "'", position - 1);
+	}
+
+	/**
+	 * @return An exception pointing at the most recently read argument.
+	 */
+	public ActionParseException error(String reason) {
+		return new ActionParseException(reason, tokenStart);
+	}
+}
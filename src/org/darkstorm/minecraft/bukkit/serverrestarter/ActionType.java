@@ -0,0 +1,19 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+
+/**
+ * A kind of action that can appear in the actions section of the config, as
+ * "<name>:<time>:<arguments...>".
+ */
+public interface ActionType {
+	public String getName();
+
+	/**
+	 * @param tokens
+	 *            Tokenizer positioned after the name and time.
+	 * @param time
+	 *            Remaining time at which the action fires, in milliseconds.
+	 */
+	public Action parse(ActionTokenizer tokens, long time) throws ActionParseException;
+}
@@ -0,0 +1,48 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+
+/**
+ * Action types known to the plugin, by case-insensitive name. Other plugins
+ * may register their own types; this should happen in onLoad() so that the
+ * types exist before the actions in the config are compiled.
+ */
+public final class ActionTypeRegistry {
+	private final ConcurrentMap<String, ActionType> types = new ConcurrentHashMap<String, ActionType>();
+
+	public void register(ActionType type) {
+		if(type == null || type.getName() == null)
+			throw new NullPointerException();
+		if(types.putIfAbsent(type.getName().toLowerCase(), type) != null)
+			throw new IllegalArgumentException("Action type '" + type.getName() + "' already registered");
+	}
+
+	public boolean unregister(ActionType type) {
+		if(type == null || type.getName() == null)
+			throw new NullPointerException();
+		return types.remove(type.getName().toLowerCase(), type);
+	}
+
+	public ActionType get(String name) {
+		if(name == null)
+			throw new NullPointerException();
+		return types.get(name.toLowerCase());
+	}
+
+	public Collection<ActionType> getTypes() {
+		return Collections.unmodifiableCollection(types.values());
+	}
+
+	public Action compile(String value) throws ActionParseException {
+		ActionTokenizer tokens = new ActionTokenizer(value);
+		String name = tokens.next();
+		ActionType type = get(name);
+		if(type == null)
+			throw tokens.error("unknown action type '" + name + "'");
+		long time = tokens.nextTime();
+		return type.parse(tokens, time);
+	}
+}
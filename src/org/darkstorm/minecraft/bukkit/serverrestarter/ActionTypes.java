@@ -0,0 +1,166 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.io.*;
+
+import org.bukkit.Sound;
+import org.darkstorm.minecraft.bukkit.config.ConfigValidator;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.MessageAction;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.ScoreboardAction;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.SoundAction;
+
+/**
+ * The built-in action types.
+ */
+public final class ActionTypes {
+	public static final ActionType MESSAGE = new MessageType();
+	public static final ActionType SOUND = new SoundType();
+	public static final ActionType SCOREBOARD = new ScoreboardType();
+
+	/**
+	 * Checks values against the action grammar of the plugin's registered
+	 * types, or only the built-in types if the plugin is not loaded.
+	 */
+	public static final ConfigValidator VALIDATOR = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			ServerRestarter plugin = ServerRestarter.getInstance();
+			ActionTypeRegistry registry = plugin != null ? plugin.getActionTypes() : DefaultRegistry.INSTANCE;
+			try {
+				registry.compile(value);
+				return null;
+			} catch(ActionParseException exception) {
+				return exception.getMessage();
+			}
+		}
+	};
+
+	private ActionTypes() {
+	}
+
+	public static void registerDefaults(ActionTypeRegistry registry) {
+		registry.register(MESSAGE);
+		registry.register(SOUND);
+		registry.register(SCOREBOARD);
+	}
+
+	private static final class DefaultRegistry {
+		static final ActionTypeRegistry INSTANCE = new ActionTypeRegistry();
+
+		static {
+			registerDefaults(INSTANCE);
+		}
+	}
+
+	private static final class MessageType implements CacheableActionType {
+		@Override
+		public String getName() {
+			return "message";
+		}
+
+		@Override
+		public Action parse(ActionTokenizer tokens, long time) throws ActionParseException {
+			return new MessageAction(tokens.rest(), time);
+		}
+
+		@Override
+		public void write(Action action, DataOutput out) throws IOException {
+			out.writeUTF(((MessageAction) action).getMessage().getSource());
+		}
+
+		@Override
+		public Action read(DataInput in, long time) throws IOException {
+			return new MessageAction(in.readUTF(), time);
+		}
+	}
+
+	private static final class SoundType implements CacheableActionType {
+		@Override
+		public String getName() {
+			return "sound";
+		}
+
+		@Override
+		public Action parse(ActionTokenizer tokens, long time) throws ActionParseException {
+			Sound sound = tokens.nextEnum(Sound.class, "sound");
+			float volume = tokens.nextFloat();
+			float pitch = tokens.nextFloat();
+			tokens.expectEnd();
+			return new SoundAction(sound, volume, pitch, time);
+		}
+
+		@Override
+		public void write(Action action, DataOutput out) throws IOException {
+			SoundAction soundAction = (SoundAction) action;
+			out.writeUTF(soundAction.getSound().name());
+			out.writeFloat(soundAction.getVolume());
+			out.writeFloat(soundAction.getPitch());
+		}
+
+		@Override
+		public Action read(DataInput in, long time) throws IOException {
+			String name = in.readUTF();
+			Sound sound;
+			try {
+				sound = Sound.valueOf(name);
+			} catch(IllegalArgumentException exception) {
+				throw new IOException("Unknown sound " + name);
+			}
+			return new SoundAction(sound, in.readFloat(), in.readFloat(), time);
+		}
+	}
+
+	private static final class ScoreboardType implements CacheableActionType {
+		@Override
+		public String getName() {
+			return "scoreboard";
+		}
+
+		@Override
+		public Action parse(ActionTokenizer tokens, long time) throws ActionParseException {
+			String operation = tokens.next();
+			if(operation.equalsIgnoreCase("enable")) {
+				tokens.expectEnd();
+				return new ScoreboardAction(ScoreboardAction.Type.ENABLE, time);
+			} else if(operation.equalsIgnoreCase("disable")) {
+				tokens.expectEnd();
+				return new ScoreboardAction(ScoreboardAction.Type.DISABLE, time);
+			} else if(operation.equalsIgnoreCase("settitle"))
+				return new ScoreboardAction(ScoreboardAction.Type.SET_TITLE, tokens.rest(), time);
+			else if(operation.equalsIgnoreCase("setformat")) {
+				String scoreType = tokens.next();
+				if(!scoreType.matches("(?i)d|h|m|s|ms"))
+					throw tokens.error("unknown score type '" + scoreType + "'");
+				return new ScoreboardAction(ScoreboardAction.Type.SET_FORMAT, tokens.rest(), scoreType, time);
+			}
+			throw tokens.error("unknown scoreboard action '" + operation + "'");
+		}
+
+		@Override
+		public void write(Action action, DataOutput out) throws IOException {
+			ScoreboardAction scoreboardAction = (ScoreboardAction) action;
+			out.writeByte(scoreboardAction.getType().ordinal());
+			writeNullable(out, scoreboardAction.getText());
+			writeNullable(out, scoreboardAction.getScoreType());
+		}
+
+		@Override
+		public Action read(DataInput in, long time) throws IOException {
+			ScoreboardAction.Type[] types = ScoreboardAction.Type.values();
+			int type = in.readUnsignedByte();
+			if(type >= types.length)
+				throw new IOException("Unknown scoreboard action " + type);
+			return new ScoreboardAction(types[type], readNullable(in), readNullable(in), time);
+		}
+
+		private static void writeNullable(DataOutput out, String value) throws IOException {
+			out.writeBoolean(value != null);
+			if(value != null)
+				out.writeUTF(value);
+		}
+
+		private static String readNullable(DataInput in) throws IOException {
+			return in.readBoolean() ? in.readUTF() : null;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.io.*;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+
+/**
+ * An action type whose actions can be stored in the config cache in binary
+ * form. Actions of other types are compiled again from their source when the
+ * cache is read.
+ */
+public interface CacheableActionType extends ActionType {
+	/**
+	 * Writes everything but the activation time of an action created by this
+	 * type.
+	 */
+	public void write(Action action, DataOutput out) throws IOException;
+
+	public Action read(DataInput in, long time) throws IOException;
+}
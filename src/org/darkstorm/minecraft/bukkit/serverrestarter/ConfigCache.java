@@ -0,0 +1,208 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+import org.darkstorm.minecraft.bukkit.config.*;
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+
+/**
+ * Binary cache of the loaded config and its compiled actions, keyed by a hash
+ * of config.yml, the plugin version and the cache format. While the hash
+ * matches, startup reads the cache in one go instead of parsing YAML and
+ * actions. Actions of types that are not cacheable, and actions that failed
+ * to compile, are stored as source and compiled again on read.
+ */
+final class ConfigCache {
+	private static final int MAGIC = 0x53524343, FORMAT_VERSION = 2;
+	private static final byte ENCODED = 0, SOURCE = 1;
+
+	private final File file;
+	private final String version;
+	private final ActionTypeRegistry actionTypes;
+
+	ConfigCache(File file, String version, ActionTypeRegistry actionTypes) {
+		if(file == null || version == null || actionTypes == null)
+			throw new NullPointerException();
+		this.file = file;
+		this.version = version;
+		this.actionTypes = actionTypes;
+	}
+
+	/**
+	 * @param configNodes
+	 *            Nodes the cached config is validated against.
+	 * @return The cached contents, or null if there is no cache or it does not
+	 *         match the hash.
+	 */
+	Contents read(byte[] hash, ConfigNode[] configNodes) {
+		if(!file.isFile())
+			return null;
+		try {
+			// Small enough to read whole, and no mapping is left to keep the
+			// file from being replaced on Windows
+			byte[] data = new byte[(int) file.length()];
+			DataInputStream stream = new DataInputStream(new FileInputStream(file));
+			try {
+				stream.readFully(data);
+			} finally {
+				stream.close();
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(version))
+				return null;
+			byte[] cachedHash = new byte[in.readUnsignedByte()];
+			in.readFully(cachedHash);
+			if(!Arrays.equals(hash, cachedHash))
+				return null;
+
+			int count = in.readInt();
+			Map<String, String> nodes = new HashMap<String, String>(count * 4 / 3 + 1);
+			for(int i = 0; i < count; i++)
+				nodes.put(in.readUTF(), in.readUTF());
+			count = in.readInt();
+			Map<ActionKey, Action> actions = new LinkedHashMap<ActionKey, Action>(count * 4 / 3 + 1);
+			Map<String, String> invalid = new LinkedHashMap<String, String>();
+			for(int i = 0; i < count; i++) {
+				String node = in.readUTF(), value = in.readUTF();
+				if(in.readByte() == ENCODED) {
+					ActionType type = actionTypes.get(in.readUTF());
+					long time = in.readLong();
+					if(!(type instanceof CacheableActionType))
+						return null;
+					actions.put(new ActionKey(node, value), ((CacheableActionType) type).read(in, time));
+				} else {
+					try {
+						actions.put(new ActionKey(node, value), actionTypes.compile(value));
+					} catch(ActionParseException exception) {
+						invalid.put(node, exception.getMessage());
+					}
+				}
+			}
+			return new Contents(new Config(nodes, configNodes), actions, invalid);
+		} catch(IOException exception) {
+			return null;
+		} catch(RuntimeException exception) {
+			// Corrupt or written by an incompatible build
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache, or leaves it alone if the config holds a value that
+	 * cannot be stored, such as one longer than 64KB.
+	 * 
+	 * @param actions
+	 *            Compiled actions keyed by node and source.
+	 * @param invalid
+	 *            Action nodes that failed to compile.
+	 * @return Whether the cache was written.
+	 */
+	boolean write(byte[] hash, Config config, Map<ActionKey, Action> actions, Collection<String> invalid) throws IOException {
+		byte[] data;
+		try {
+			data = encode(hash, config, actions, invalid);
+		} catch(UTFDataFormatException exception) {
+			return false;
+		}
+		AtomicFile.write(file, data);
+		return true;
+	}
+
+	private byte[] encode(byte[] hash, Config config, Map<ActionKey, Action> actions, Collection<String> invalid) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeUTF(version);
+		out.writeByte(hash.length);
+		out.write(hash);
+
+		List<String> nodes = config.getNodes();
+		out.writeInt(nodes.size());
+		for(String node : nodes) {
+			out.writeUTF(node);
+			out.writeUTF(config.getString(node));
+		}
+		out.writeInt(actions.size() + invalid.size());
+		for(Map.Entry<ActionKey, Action> entry : actions.entrySet()) {
+			ActionKey key = entry.getKey();
+			String value = key.getValue();
+			out.writeUTF(key.getNode());
+			out.writeUTF(value);
+			ActionType type = getType(value);
+			if(type instanceof CacheableActionType) {
+				out.writeByte(ENCODED);
+				out.writeUTF(type.getName());
+				out.writeLong(entry.getValue().getActivationTime());
+				((CacheableActionType) type).write(entry.getValue(), out);
+			} else
+				out.writeByte(SOURCE);
+		}
+		for(String node : invalid) {
+			out.writeUTF(node);
+			out.writeUTF(config.getString(node));
+			out.writeByte(SOURCE);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private ActionType getType(String value) {
+		try {
+			return actionTypes.get(new ActionTokenizer(value).next());
+		} catch(ActionParseException exception) {
+			return null;
+		}
+	}
+
+	static byte[] hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException exception) {
+			throw new IOException(exception);
+		}
+		InputStream stream = new DigestInputStream(new FileInputStream(file), digest);
+		try {
+			byte[] buffer = new byte[8192];
+			while(stream.read(buffer) != -1)
+				;
+		} finally {
+			stream.close();
+		}
+		return digest.digest();
+	}
+
+	static final class Contents {
+		private final Config config;
+		private final Map<ActionKey, Action> actions;
+		private final Map<String, String> invalid;
+
+		Contents(Config config, Map<ActionKey, Action> actions, Map<String, String> invalid) {
+			this.config = config;
+			this.actions = actions;
+			this.invalid = invalid;
+		}
+
+		public Config getConfig() {
+			return config;
+		}
+
+		/**
+		 * @return Compiled actions keyed by node and value, in config order.
+		 */
+		public Map<ActionKey, Action> getActions() {
+			return actions;
+		}
+
+		/**
+		 * @return Error messages of the actions that failed to compile, by
+		 *         node.
+		 */
+		public Map<String, String> getInvalid() {
+			return invalid;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+
+import org.darkstorm.minecraft.bukkit.config.*;
+
+/**
+ * Moves the restart depending on how the server is holding up. The monitor
+ * is told about old generation occupancy after collections and about GC
+ * pauses through JMX notifications, and samples the time between ticks
+ * itself. When a threshold is crossed the countdown is pulled forward so the
+ * normal action plan plays out; when the countdown is about to start its
+ * actions and everything is well below the thresholds, it is pushed back by
+ * a step, up to a maximum in total.
+ * <p>
+ * Notifications arrive on JMX threads and only set flags. Decisions are made
+ * on the main thread, once a second.
+ */
+public class HealthMonitor implements Runnable {
+	private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+	// Ticks averaged for the tick interval, 30 seconds at full speed
+	private static final int WINDOW = 600;
+	private static final int EVALUATE_INTERVAL = 20;
+	// Leeway before the first action for pushing back, as evaluation is not
+	// exact to the tick
+	private static final long PUSH_BACK_MARGIN = 5000;
+
+	private final ServerRestarter plugin;
+
+	// Old generation pools and the thresholds they had before, put back on
+	// stop as the MXBeans are shared with the server and other plugins
+	private final Map<MemoryPoolMXBean, Long> oldPools = new LinkedHashMap<MemoryPoolMXBean, Long>();
+	private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+	private final NotificationListener listener = new NotificationListener() {
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			HealthMonitor.this.handleNotification(notification);
+		}
+	};
+
+	private final long[] tickTimes = new long[WINDOW];
+	private int tickIndex, tickCount;
+	private long tickSum, lastTick;
+	private int ticksUntilEvaluation = EVALUATE_INTERVAL;
+
+	private volatile String heapAlert;
+	private volatile long gcPause, longestGcPause;
+	private volatile float heapThreshold = -1;
+
+	private String pulledForward;
+	private long delayed;
+	private int pushBacks;
+
+	private int taskId = -1;
+
+	public HealthMonitor(ServerRestarter plugin) {
+		if(plugin == null)
+			throw new NullPointerException();
+		this.plugin = plugin;
+	}
+
+	public void start() {
+		if(taskId != -1)
+			throw new IllegalStateException("Monitor already started");
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && isOldGeneration(pool.getName()))
+				oldPools.put(pool, pool.getCollectionUsageThreshold());
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		if(memory instanceof NotificationEmitter)
+			addListener((NotificationEmitter) memory);
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			if(collector instanceof NotificationEmitter)
+				addListener((NotificationEmitter) collector);
+		updateThresholds();
+		lastTick = System.nanoTime();
+		taskId = plugin.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, this, 1, 1);
+	}
+
+	private void addListener(NotificationEmitter emitter) {
+		emitter.addNotificationListener(listener, null, null);
+		emitters.add(emitter);
+	}
+
+	public void stop() {
+		if(taskId != -1)
+			plugin.getServer().getScheduler().cancelTask(taskId);
+		taskId = -1;
+		for(NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(listener);
+			} catch(ListenerNotFoundException exception) {}
+		}
+		emitters.clear();
+		for(Map.Entry<MemoryPoolMXBean, Long> entry : oldPools.entrySet())
+			entry.getKey().setCollectionUsageThreshold(entry.getValue());
+		oldPools.clear();
+		heapThreshold = -1;
+	}
+
+	/**
+	 * Forgets earlier decisions, for when the countdown is started over.
+	 */
+	public void reset() {
+		pulledForward = null;
+		delayed = 0;
+		pushBacks = 0;
+		heapAlert = null;
+		gcPause = 0;
+	}
+
+	private static boolean isOldGeneration(String name) {
+		// Tenured Gen, PS Old Gen, CMS Old Gen, G1 Old Gen and the single
+		// generation of ZGC and Shenandoah
+		return name.contains("Old") || name.contains("Tenured") || name.equals("ZHeap") || name.equals("Shenandoah");
+	}
+
+	private void updateThresholds() {
+		float threshold = plugin.getSettings().getFloat(ServerRestarterConfigNodes.HEALTH_HEAP_THRESHOLD);
+		if(threshold == heapThreshold)
+			return;
+		heapThreshold = threshold;
+		for(Map.Entry<MemoryPoolMXBean, Long> entry : oldPools.entrySet()) {
+			MemoryPoolMXBean pool = entry.getKey();
+			long max = pool.getUsage().getMax();
+			// Disabled leaves whatever threshold was there before
+			pool.setCollectionUsageThreshold(max > 0 && threshold > 0 ? Math.max(1, (long) (max * (double) threshold)) : entry.getValue());
+		}
+	}
+
+	private void handleNotification(Notification notification) {
+		String type = notification.getType();
+		if(type.equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) {
+			// Otherwise the threshold is someone else's
+			if(heapThreshold <= 0 || !(notification.getUserData() instanceof CompositeData))
+				return;
+			MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+			MemoryUsage usage = info.getUsage();
+			heapAlert = info.getPoolName() + " at " + getPercentage(usage) + "% after GC";
+		} else if(type.equals(GC_NOTIFICATION) && notification.getUserData() instanceof CompositeData) {
+			// Read through open types so this works without com.sun classes
+			CompositeData data = (CompositeData) notification.getUserData();
+			Object name = data.containsKey("gcName") ? data.get("gcName") : null;
+			// Concurrent cycles mostly run alongside the application
+			if(name instanceof String && ((String) name).contains("Concurrent"))
+				return;
+			Object info = data.containsKey("gcInfo") ? data.get("gcInfo") : null;
+			if(!(info instanceof CompositeData) || !((CompositeData) info).containsKey("duration"))
+				return;
+			Object value = ((CompositeData) info).get("duration");
+			if(!(value instanceof Long))
+				return;
+			long duration = (Long) value;
+			if(duration > gcPause)
+				gcPause = duration;
+			if(duration > longestGcPause)
+				longestGcPause = duration;
+		}
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		long time = now - lastTick;
+		lastTick = now;
+		if(tickCount == WINDOW)
+			tickSum -= tickTimes[tickIndex];
+		else
+			tickCount++;
+		tickTimes[tickIndex] = time;
+		tickSum += time;
+		tickIndex = (tickIndex + 1) % WINDOW;
+
+		if(--ticksUntilEvaluation > 0)
+			return;
+		ticksUntilEvaluation = EVALUATE_INTERVAL;
+		updateThresholds();
+		evaluate();
+	}
+
+	private void evaluate() {
+		if(plugin.isRestarting())
+			return;
+		ConfigSnapshot settings = plugin.getSettings();
+		long remaining = plugin.getRemainingTime();
+		long restartTime = settings.getTime(ServerRestarterConfigNodes.HEALTH_RESTART_TIME);
+		float intervalThreshold = settings.getFloat(ServerRestarterConfigNodes.HEALTH_TICK_INTERVAL);
+		long pauseThreshold = settings.getTime(ServerRestarterConfigNodes.HEALTH_GC_PAUSE);
+		double interval = getTickInterval();
+		long pause = gcPause;
+		gcPause = 0;
+
+		String alert = null;
+		if(heapAlert != null)
+			alert = heapAlert;
+		else if(pauseThreshold > 0 && pause >= pauseThreshold)
+			alert = "GC pause of " + pause + "ms";
+		else if(intervalThreshold > 0 && tickCount == WINDOW && interval >= intervalThreshold)
+			alert = String.format("average tick interval of %.1fms", interval);
+		if(alert != null) {
+			heapAlert = null;
+			if(pulledForward == null && remaining > restartTime) {
+				pulledForward = alert;
+				plugin.getLogger().warning("Restarting early, " + alert);
+				plugin.moveRestart(restartTime, "health: " + alert);
+			}
+			return;
+		}
+
+		// Only push back right before the countdown gets going, and only
+		// while every measure is clear of its threshold
+		long step = settings.getTime(ServerRestarterConfigNodes.HEALTH_DELAY_STEP);
+		long maxDelay = settings.getTime(ServerRestarterConfigNodes.HEALTH_MAX_DELAY);
+		if(pulledForward != null || plugin.isCustomTime() || step <= 0 || delayed >= maxDelay)
+			return;
+		long lead = Math.max(restartTime, plugin.getCountdownLead());
+		if(remaining > lead + PUSH_BACK_MARGIN || !isHealthy(settings, interval))
+			return;
+		long delay = Math.min(step, maxDelay - delayed);
+		delayed += delay;
+		pushBacks++;
+		plugin.getLogger().info("Server is healthy, delaying restart by " + DurationCodec.format(delay) + ".");
+		plugin.moveRestart(remaining + delay, null);
+	}
+
+	private boolean isHealthy(ConfigSnapshot settings, double interval) {
+		float intervalThreshold = settings.getFloat(ServerRestarterConfigNodes.HEALTH_TICK_INTERVAL);
+		if(intervalThreshold > 0 && interval >= intervalThreshold)
+			return false;
+		if(heapThreshold > 0)
+			for(MemoryPoolMXBean pool : oldPools.keySet()) {
+				MemoryUsage usage = pool.getCollectionUsage();
+				if(usage != null && usage.getMax() > 0 && usage.getUsed() >= usage.getMax() * (double) heapThreshold)
+					return false;
+			}
+		return true;
+	}
+
+	private static int getPercentage(MemoryUsage usage) {
+		return usage.getMax() > 0 ? (int) (usage.getUsed() * 100 / usage.getMax()) : 0;
+	}
+
+	/**
+	 * @return The average time between ticks over the last 30 seconds in
+	 *         milliseconds. This is at least 50 and equals the tick duration
+	 *         once the server can't keep up.
+	 */
+	public double getTickInterval() {
+		return tickCount == 0 ? 0 : (double) tickSum / tickCount / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return The longest GC pause seen, in milliseconds.
+	 */
+	public long getLongestGcPause() {
+		return longestGcPause;
+	}
+
+	/**
+	 * @return Why the restart was pulled forward, or null if it was not.
+	 */
+	public String getPulledForward() {
+		return pulledForward;
+	}
+
+	/**
+	 * @return How long the restart has been pushed back in total, in
+	 *         milliseconds.
+	 */
+	public long getDelayed() {
+		return delayed;
+	}
+
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder("Health: ");
+		builder.append(String.format("average tick interval %.1fms", getTickInterval())).append(", longest GC pause ").append(longestGcPause).append("ms");
+		for(MemoryPoolMXBean pool : oldPools.keySet()) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if(usage != null)
+				builder.append(", ").append(pool.getName()).append(' ').append(getPercentage(usage)).append("% after GC");
+		}
+		if(pulledForward != null)
+			builder.append(", restart pulled forward (").append(pulledForward).append(')');
+		if(pushBacks > 0)
+			builder.append(", pushed back ").append(pushBacks).append(" times");
+		return builder.toString();
+	}
+}
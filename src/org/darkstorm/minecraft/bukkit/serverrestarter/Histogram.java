@@ -0,0 +1,90 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+/**
+ * Fixed-size log-linear histogram of non-negative values. Each power of two is
+ * split into eight buckets, so percentiles are accurate to within 12.5%.
+ * Recording never allocates. Instances are meant to be written from a single
+ * thread; readers on other threads may observe slightly stale counts.
+ */
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+	private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count, sum, max;
+
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		counts[getBucket(value)]++;
+		count++;
+		sum += value;
+		if(value > max)
+			max = value;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            Percentile in the range 0 to 100.
+	 * @return The upper bound of the bucket containing the percentile, or 0
+	 *         if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException();
+		long total = count;
+		if(total == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for(int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts[bucket];
+			if(seen >= target)
+				return Math.min(getUpperBound(bucket), max);
+		}
+		return max;
+	}
+
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++)
+			counts[i] = 0;
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	private static int getBucket(long value) {
+		if(value < LINEAR_LIMIT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getUpperBound(int bucket) {
+		if(bucket < LINEAR_LIMIT)
+			return bucket;
+		int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+		long lowerBound = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,136 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Kicks every online player in batches of a fixed size per tick, so quit
+ * handling is spread out instead of landing in a single tick. Players with
+ * the kick-last permission are queued behind everyone else. Once nobody is
+ * left online, or the timeout expires, the finish callback runs.
+ */
+public class KickPipeline implements Runnable {
+	public static final String KICK_LAST_PERMISSION = "sr.kicklast";
+
+	private final Plugin plugin;
+	private final String message;
+	private final int batchSize;
+	private final long timeout;
+	private final Runnable onFinished;
+
+	private final Deque<Player> queue = new ArrayDeque<Player>();
+	// Time spent kicking each batch, in microseconds
+	private final Histogram batchTimes = new Histogram();
+
+	private long startTime;
+	private int kicked, ticks;
+	private boolean timedOut, finished;
+	private int taskId = -1;
+
+	/**
+	 * @param batchSize
+	 *            Players kicked per tick, or 0 for everyone at once.
+	 * @param timeout
+	 *            Milliseconds after which the pipeline finishes even if
+	 *            players are left.
+	 */
+	public KickPipeline(Plugin plugin, String message, int batchSize, long timeout, Runnable onFinished) {
+		if(plugin == null || message == null || onFinished == null)
+			throw new NullPointerException();
+		if(batchSize < 0 || timeout < 0)
+			throw new IllegalArgumentException();
+		this.plugin = plugin;
+		this.message = message;
+		this.batchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+		this.timeout = timeout;
+		this.onFinished = onFinished;
+	}
+
+	public void start() {
+		if(taskId != -1 || finished)
+			throw new IllegalStateException("Pipeline already started");
+		startTime = System.nanoTime();
+		enqueue(plugin.getServer().getOnlinePlayers());
+		taskId = plugin.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, this, 0, 1);
+		if(taskId == -1)
+			finish();
+	}
+
+	private void enqueue(Player[] players) {
+		for(Player player : players)
+			if(!player.hasPermission(KICK_LAST_PERMISSION))
+				queue.add(player);
+		for(Player player : players)
+			if(player.hasPermission(KICK_LAST_PERMISSION))
+				queue.add(player);
+	}
+
+	@Override
+	public void run() {
+		if(finished)
+			return;
+		ticks++;
+		// Pick up anyone whose login completed after the pipeline started
+		if(queue.isEmpty())
+			enqueue(plugin.getServer().getOnlinePlayers());
+		if(queue.isEmpty() || getElapsedTime() >= timeout) {
+			timedOut = !queue.isEmpty();
+			finish();
+			return;
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < batchSize && !queue.isEmpty(); i++) {
+			Player player = queue.poll();
+			if(player.isOnline()) {
+				player.kickPlayer(message);
+				kicked++;
+			}
+		}
+		batchTimes.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+	}
+
+	private void finish() {
+		finished = true;
+		if(taskId != -1)
+			plugin.getServer().getScheduler().cancelTask(taskId);
+		taskId = -1;
+		plugin.getLogger().info(getSummary());
+		onFinished.run();
+	}
+
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder("Kicked ").append(kicked).append(" players in ").append(ticks).append(" ticks (").append(getElapsedTime()).append("ms)");
+		if(batchTimes.getCount() > 0)
+			builder.append(", batch p50 ").append(batchTimes.getPercentile(50)).append("us, p99 ").append(batchTimes.getPercentile(99)).append("us, max ").append(batchTimes.getMax()).append("us");
+		if(timedOut)
+			builder.append(", timed out with ").append(queue.size()).append(" left");
+		return builder.toString();
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public int getKicked() {
+		return kicked;
+	}
+
+	public int getRemaining() {
+		return queue.size();
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public Histogram getBatchTimes() {
+		return batchTimes;
+	}
+
+	private long getElapsedTime() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+}
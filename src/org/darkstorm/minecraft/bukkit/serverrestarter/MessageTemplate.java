@@ -0,0 +1,146 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+
+import org.darkstorm.minecraft.bukkit.config.DurationCodec;
+
+/**
+ * A message with '&' color codes translated and placeholders split out ahead
+ * of time, so rendering is a handful of appends. Supported placeholders are
+ * {remaining}, {players} and {reason}; unknown braces are left as they are.
+ * Templates are kept by whatever owns the message rather than cached here, as
+ * the source text can be anything typed into a command.
+ */
+public final class MessageTemplate {
+	public enum Placeholder {
+		REMAINING("remaining"),
+		PLAYERS("players"),
+		REASON("reason");
+
+		private final String name;
+
+		private Placeholder(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final char COLOR_CHAR = '\247';
+
+	private final String source, text;
+	private final String[] literals;
+	private final Placeholder[] placeholders;
+
+	private MessageTemplate(String source) {
+		this.source = source;
+		String text = this.text = translateColors(source);
+		List<String> literals = new ArrayList<String>();
+		List<Placeholder> placeholders = new ArrayList<Placeholder>();
+		int start = 0, search = 0, open;
+		while((open = text.indexOf('{', search)) != -1) {
+			int close = text.indexOf('}', open + 1);
+			if(close == -1)
+				break;
+			Placeholder placeholder = getPlaceholder(text, open + 1, close);
+			if(placeholder == null) {
+				// Not a placeholder, keep it as literal text
+				search = open + 1;
+				continue;
+			}
+			literals.add(text.substring(start, open));
+			placeholders.add(placeholder);
+			start = search = close + 1;
+		}
+		literals.add(text.substring(start));
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.placeholders = placeholders.toArray(new Placeholder[placeholders.size()]);
+	}
+
+	public static MessageTemplate compile(String source) {
+		if(source == null)
+			throw new NullPointerException();
+		return new MessageTemplate(source);
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return The source with colors translated and placeholders left as they
+	 *         are.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public boolean hasPlaceholders() {
+		return placeholders.length > 0;
+	}
+
+	public boolean uses(Placeholder placeholder) {
+		for(Placeholder used : placeholders)
+			if(used == placeholder)
+				return true;
+		return false;
+	}
+
+	public String render(long remaining, int players, String reason) {
+		if(placeholders.length == 0)
+			return literals[0];
+		StringBuilder builder = new StringBuilder(source.length() + 16);
+		render(builder, remaining, players, reason);
+		return builder.toString();
+	}
+
+	public void render(StringBuilder builder, long remaining, int players, String reason) {
+		for(int i = 0; i < placeholders.length; i++) {
+			builder.append(literals[i]);
+			switch(placeholders[i]) {
+			case REMAINING:
+				DurationCodec.formatWords(remaining, builder);
+				break;
+			case PLAYERS:
+				builder.append(players);
+				break;
+			case REASON:
+				if(reason != null)
+					builder.append(reason);
+				break;
+			}
+		}
+		builder.append(literals[placeholders.length]);
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/**
+	 * Replaces '&' color codes with the section sign in a single pass.
+	 */
+	public static String translateColors(String message) {
+		char[] chars = message.toCharArray();
+		for(int i = 0; i < chars.length - 1; i++)
+			if(chars[i] == '&' && isColorCode(chars[i + 1]))
+				chars[i] = COLOR_CHAR;
+		return new String(chars);
+	}
+
+	private static boolean isColorCode(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || (c >= 'k' && c <= 'o') || (c >= 'K' && c <= 'O') || c == 'r' || c == 'R';
+	}
+
+	private static Placeholder getPlaceholder(String text, int start, int end) {
+		for(Placeholder placeholder : Placeholder.values()) {
+			String name = placeholder.getName();
+			if(name.length() == end - start && text.regionMatches(true, start, name, 0, name.length()))
+				return placeholder;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,122 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import org.darkstorm.minecraft.bukkit.config.*;
+
+/**
+ * Moves the restart to a moment when few players are online. Within the
+ * maximum slip before the scheduled restart the countdown is advanced as soon
+ * as the player count drops to the threshold; once the countdown is about to
+ * start its actions with more players online, it is deferred a step at a
+ * time, up to the maximum slip in total.
+ * <p>
+ * The player count is kept up to date from join and quit events, so checks
+ * never have to look at the online players.
+ */
+public class PopulationPolicy {
+	private final ServerRestarter plugin;
+
+	private int players;
+	private boolean windowOpen;
+	private long deferred;
+	private int deferrals;
+	private boolean advanced;
+
+	/**
+	 * @param players
+	 *            The number of players online now.
+	 */
+	public PopulationPolicy(ServerRestarter plugin, int players) {
+		if(plugin == null)
+			throw new NullPointerException();
+		this.plugin = plugin;
+		this.players = players;
+	}
+
+	public void onJoin() {
+		players++;
+	}
+
+	public void onQuit() {
+		if(players > 0)
+			players--;
+		if(windowOpen)
+			checkAdvance();
+	}
+
+	/**
+	 * Called when the countdown enters the maximum slip before its actions,
+	 * from then on the restart is advanced once few enough players are on.
+	 */
+	public void openWindow() {
+		windowOpen = true;
+		checkAdvance();
+	}
+
+	private void checkAdvance() {
+		if(advanced || !isLow() || plugin.isCustomTime())
+			return;
+		long lead = plugin.getCountdownLead();
+		if(plugin.getRemainingTime() <= lead)
+			return;
+		advanced = true;
+		windowOpen = false;
+		plugin.getLogger().info("Restarting early, " + players + " players online.");
+		plugin.moveRestart(lead, "population: " + players + " players");
+	}
+
+	/**
+	 * Called when the countdown is about to start its actions. Defers the
+	 * restart by a step if too many players are on and there is slip left.
+	 */
+	public void checkDefer() {
+		ConfigSnapshot settings = plugin.getSettings();
+		long step = settings.getTime(ServerRestarterConfigNodes.POPULATION_DEFER_STEP);
+		long maxSlip = settings.getTime(ServerRestarterConfigNodes.POPULATION_MAX_SLIP);
+		if(advanced || isLow() || plugin.isCustomTime() || step <= 0 || deferred >= maxSlip)
+			return;
+		long delay = Math.min(step, maxSlip - deferred);
+		deferred += delay;
+		deferrals++;
+		plugin.getLogger().info(players + " players online, delaying restart by " + DurationCodec.format(delay) + ".");
+		plugin.moveRestart(plugin.getRemainingTime() + delay, null);
+	}
+
+	/**
+	 * Forgets earlier decisions, for when the countdown is started over.
+	 */
+	public void reset() {
+		windowOpen = false;
+		deferred = 0;
+		deferrals = 0;
+		advanced = false;
+	}
+
+	private boolean isLow() {
+		return players <= plugin.getSettings().getInt(ServerRestarterConfigNodes.POPULATION_THRESHOLD);
+	}
+
+	public int getPlayers() {
+		return players;
+	}
+
+	/**
+	 * @return How long the restart has been deferred in total, in
+	 *         milliseconds.
+	 */
+	public long getDeferred() {
+		return deferred;
+	}
+
+	public boolean isAdvanced() {
+		return advanced;
+	}
+
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder("Population: ").append(players).append(" players online");
+		if(advanced)
+			builder.append(", restart advanced");
+		if(deferrals > 0)
+			builder.append(", deferred ").append(deferrals).append(" times by ").append(DurationCodec.format(deferred));
+		return builder.toString();
+	}
+}
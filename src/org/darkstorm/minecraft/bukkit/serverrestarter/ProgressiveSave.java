@@ -0,0 +1,179 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.*;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Saves the worlds ahead of a restart in small steps, so the save on
+ * shutdown only has to write what changed since. Bukkit cannot save a single
+ * chunk, so idle chunks are requested to unload, a few per tick within the
+ * time budget, and the server saves them through its normal unload queue.
+ * That path fires ChunkUnloadEvent, so plugins can keep their chunks loaded,
+ * and leaves the spawn chunks alone. Chunks near players are left to the
+ * world saves that follow, one world per tick. Autosave is turned off while
+ * the save runs and stays off until the server shuts down or the save is
+ * stopped.
+ */
+public class ProgressiveSave implements Runnable {
+	private final Plugin plugin;
+	private final long budget;
+
+	private final Deque<Chunk> chunks = new ArrayDeque<Chunk>();
+	private final Deque<World> worlds = new ArrayDeque<World>();
+	private final Map<World, Boolean> autoSave = new LinkedHashMap<World, Boolean>();
+	// Main thread time spent per tick, in microseconds
+	private final Histogram tickTimes = new Histogram();
+
+	private int chunksRequested, chunksSkipped, worldsSaved;
+	private long startTime, finishTime;
+	private boolean finished, stopped;
+	private int taskId = -1;
+
+	/**
+	 * @param budget
+	 *            Milliseconds of main thread time to spend per tick. At least
+	 *            one chunk or world is handled per tick regardless.
+	 */
+	public ProgressiveSave(Plugin plugin, long budget) {
+		if(plugin == null)
+			throw new NullPointerException();
+		if(budget < 0)
+			throw new IllegalArgumentException();
+		this.plugin = plugin;
+		this.budget = TimeUnit.MILLISECONDS.toNanos(budget);
+	}
+
+	public void start() {
+		if(taskId != -1 || finished || stopped)
+			throw new IllegalStateException("Save already started");
+		startTime = System.currentTimeMillis();
+		for(World world : plugin.getServer().getWorlds()) {
+			autoSave.put(world, world.isAutoSave());
+			world.setAutoSave(false);
+			worlds.add(world);
+			chunks.addAll(Arrays.asList(world.getLoadedChunks()));
+		}
+		taskId = plugin.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, this, 1, 1);
+		if(taskId == -1)
+			stop();
+	}
+
+	@Override
+	public void run() {
+		if(finished || stopped)
+			return;
+		long start = System.nanoTime();
+		long end = start + budget;
+		do {
+			Chunk chunk = chunks.poll();
+			if(chunk != null) {
+				if(chunk.isLoaded() && chunk.getWorld().unloadChunkRequest(chunk.getX(), chunk.getZ(), true))
+					chunksRequested++;
+				else
+					chunksSkipped++;
+				continue;
+			}
+			// World saves can't be split, so only one is done per tick
+			World world = worlds.poll();
+			if(world != null) {
+				world.save();
+				worldsSaved++;
+			}
+			break;
+		} while(System.nanoTime() < end);
+		tickTimes.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		if(chunks.isEmpty() && worlds.isEmpty()) {
+			finished = true;
+			finishTime = System.currentTimeMillis();
+			cancelTask();
+			plugin.getLogger().info(getSummary());
+		}
+	}
+
+	/**
+	 * Stops saving and turns autosave back on for the worlds it was on for,
+	 * for when the restart is called off or moved back.
+	 */
+	public void stop() {
+		if(stopped)
+			return;
+		stopped = true;
+		cancelTask();
+		for(Map.Entry<World, Boolean> entry : autoSave.entrySet())
+			entry.getKey().setAutoSave(entry.getValue());
+		chunks.clear();
+		worlds.clear();
+	}
+
+	private void cancelTask() {
+		if(taskId != -1)
+			plugin.getServer().getScheduler().cancelTask(taskId);
+		taskId = -1;
+	}
+
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder("World save: ");
+		builder.append(chunksRequested).append(" chunks queued for unload, ").append(chunksSkipped).append(" in use, ");
+		builder.append(worldsSaved).append('/').append(autoSave.size()).append(" worlds saved");
+		if(!finished)
+			builder.append(", ").append(chunks.size()).append(" chunks left");
+		if(tickTimes.getCount() > 0)
+			builder.append(" in ").append(tickTimes.getCount()).append(" ticks, p50 ").append(tickTimes.getPercentile(50)).append("us, p99 ").append(tickTimes.getPercentile(99)).append("us, max ").append(tickTimes.getMax()).append("us per tick");
+		return builder.toString();
+	}
+
+	/**
+	 * @return Chunks handed to the server's unload queue, which saves them
+	 *         unless a ChunkUnloadEvent handler keeps them loaded.
+	 */
+	public int getChunksRequested() {
+		return chunksRequested;
+	}
+
+	/**
+	 * @return Chunks that were in use or already unloaded when their turn
+	 *         came. Those in use are only written by the world saves.
+	 */
+	public int getChunksSkipped() {
+		return chunksSkipped;
+	}
+
+	public int getChunksRemaining() {
+		return chunks.size();
+	}
+
+	public int getWorldsSaved() {
+		return worldsSaved;
+	}
+
+	public int getWorldsRemaining() {
+		return worlds.size();
+	}
+
+	/**
+	 * @return How long ago the save finished in milliseconds, or -1 if it has
+	 *         not. Everything changed since is left to the save on shutdown.
+	 */
+	public long getTimeSinceFinish() {
+		return finished ? System.currentTimeMillis() - finishTime : -1;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	public Histogram getTickTimes() {
+		return tickTimes;
+	}
+}
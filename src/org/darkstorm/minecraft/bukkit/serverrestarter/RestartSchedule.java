@@ -0,0 +1,343 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+
+import org.darkstorm.minecraft.bukkit.config.ConfigValidator;
+
+/**
+ * A set of wall clock times to restart at, in a time zone. The schedule is a
+ * list of entries separated by semicolons, each either a five field cron
+ * expression (minute, hour, day of month, month, day of week) or a daily time
+ * with optional days, e.g.
+ *
+ * <pre>
+ * 04:00; 16:00 MON-FRI; 30 2 1 * *
+ * </pre>
+ *
+ * Cron fields accept *, numbers, ranges, lists and steps, and month and day
+ * names. As in cron, a day matches if it matches either the day of month or
+ * the day of week when both are restricted.
+ * <p>
+ * The next time is found field by field with BitSet.nextSetBit() rather than
+ * by stepping through minutes, and the entries are kept in a heap by their
+ * next time, so for increasing queries only entries that have passed are
+ * looked at again. Local times skipped by a DST change fire at the end of the
+ * gap; times repeated by one fire once, in their first occurrence.
+ */
+public final class RestartSchedule {
+	public static final ConfigValidator VALIDATOR = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			// Empty turns the schedule off
+			if(value.trim().isEmpty())
+				return null;
+			try {
+				parse(value, TimeZone.getDefault());
+				return null;
+			} catch(IllegalArgumentException exception) {
+				return exception.getMessage();
+			}
+		}
+	};
+	public static final ConfigValidator TIME_ZONE_VALIDATOR = new ConfigValidator() {
+		@Override
+		public String validate(String value) {
+			return value.isEmpty() || Arrays.asList(TimeZone.getAvailableIDs()).contains(value) ? null : "expected a time zone ID such as Europe/Berlin";
+		}
+	};
+
+	// Beyond this an entry such as February 30th is taken to never fire
+	private static final int MAX_YEARS = 8;
+	private static final long MINUTE = 60000;
+	// Largest clock change looked for when checking for repeated times
+	private static final long MAX_SHIFT = 3 * 60 * MINUTE;
+
+	private static final String[] MONTH_NAMES = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+	private static final String[] DAY_NAMES = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	private final List<Entry> entries;
+	private final TimeZone timeZone;
+	private final String source;
+
+	private final Calendar calendar;
+	private final PriorityQueue<Entry> queue;
+	private long lastQuery = Long.MIN_VALUE;
+
+	private RestartSchedule(List<Entry> entries, TimeZone timeZone, String source) {
+		this.entries = entries;
+		this.timeZone = timeZone;
+		this.source = source;
+		calendar = Calendar.getInstance(timeZone, Locale.ROOT);
+		queue = new PriorityQueue<Entry>(Math.max(1, entries.size()));
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If the schedule is empty or an entry is invalid.
+	 */
+	public static RestartSchedule parse(String schedule, TimeZone timeZone) {
+		if(schedule == null || timeZone == null)
+			throw new NullPointerException();
+		List<Entry> entries = new ArrayList<Entry>();
+		for(String part : schedule.split(";")) {
+			String entry = part.trim();
+			if(!entry.isEmpty())
+				entries.add(parseEntry(entry));
+		}
+		if(entries.isEmpty())
+			throw new IllegalArgumentException("expected at least one time");
+		return new RestartSchedule(entries, (TimeZone) timeZone.clone(), schedule.trim());
+	}
+
+	/**
+	 * @param after
+	 *            Epoch milliseconds.
+	 * @return The first scheduled time strictly after the given time in epoch
+	 *         milliseconds, or -1 if there is none.
+	 */
+	public synchronized long next(long after) {
+		if(after < lastQuery || queue.size() != entries.size()) {
+			// Going back in time invalidates every cached time
+			queue.clear();
+			for(Entry entry : entries) {
+				entry.nextTime = entry.next(after, calendar);
+				queue.add(entry);
+			}
+		} else {
+			Entry entry;
+			while((entry = queue.peek()).nextTime != -1 && entry.nextTime <= after) {
+				queue.poll();
+				entry.nextTime = entry.next(after, calendar);
+				queue.add(entry);
+			}
+		}
+		lastQuery = after;
+		return queue.peek().nextTime;
+	}
+
+	public TimeZone getTimeZone() {
+		return (TimeZone) timeZone.clone();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return source + " (" + timeZone.getID() + ")";
+	}
+
+	private static Entry parseEntry(String entry) {
+		String[] parts = entry.split("\\s+");
+		if(parts[0].indexOf(':') != -1) {
+			if(parts.length > 2)
+				throw new IllegalArgumentException("expected HH:mm and optional days in '" + entry + "'");
+			String[] time = parts[0].split(":");
+			if(time.length != 2)
+				throw new IllegalArgumentException("expected HH:mm in '" + entry + "'");
+			BitSet minutes = new BitSet(60), hours = new BitSet(24);
+			minutes.set(parseNumber(time[1], 0, 59, null, entry));
+			hours.set(parseNumber(time[0], 0, 23, null, entry));
+			BitSet days = parts.length > 1 ? parseDays(parts[1], entry) : parseField("*", 0, 6, null, entry);
+			return new Entry(minutes, hours, parseField("*", 1, 31, null, entry), parseField("*", 1, 12, null, entry), days, false, parts.length > 1);
+		}
+		if(parts.length != 5)
+			throw new IllegalArgumentException("expected 5 cron fields or HH:mm in '" + entry + "'");
+		BitSet minutes = parseField(parts[0], 0, 59, null, entry);
+		BitSet hours = parseField(parts[1], 0, 23, null, entry);
+		BitSet daysOfMonth = parseField(parts[2], 1, 31, null, entry);
+		BitSet months = parseField(parts[3], 1, 12, MONTH_NAMES, entry);
+		BitSet days = parseDays(parts[4], entry);
+		return new Entry(minutes, hours, daysOfMonth, months, days, !parts[2].equals("*"), !parts[4].equals("*"));
+	}
+
+	private static BitSet parseDays(String field, String entry) {
+		// 0 and 7 are both Sunday
+		BitSet days = parseField(field, 0, 7, DAY_NAMES, entry);
+		if(days.get(7)) {
+			days.clear(7);
+			days.set(0);
+		}
+		return days;
+	}
+
+	private static BitSet parseField(String field, int min, int max, String[] names, String entry) {
+		BitSet values = new BitSet(max + 1);
+		for(String item : field.split(",")) {
+			int step = 1;
+			int slash = item.indexOf('/');
+			if(slash != -1) {
+				step = parseNumber(item.substring(slash + 1), 1, max - min + 1, null, entry);
+				item = item.substring(0, slash);
+			}
+			int start, end;
+			if(item.equals("*")) {
+				start = min;
+				end = max;
+			} else {
+				int dash = item.indexOf('-');
+				if(dash != -1) {
+					start = parseNumber(item.substring(0, dash), min, max, names, entry);
+					end = parseNumber(item.substring(dash + 1), min, max, names, entry);
+					if(end < start)
+						throw new IllegalArgumentException("invalid range " + item + " in '" + entry + "'");
+				} else {
+					start = parseNumber(item, min, max, names, entry);
+					end = slash != -1 ? max : start;
+				}
+			}
+			for(int value = start; value <= end; value += step)
+				values.set(value);
+		}
+		return values;
+	}
+
+	private static int parseNumber(String value, int min, int max, String[] names, String entry) {
+		if(names != null) {
+			for(int i = 0; i < names.length; i++)
+				if(names[i].equalsIgnoreCase(value))
+					// Month names start at 1, day names at 0
+					return i + min;
+		}
+		int number;
+		try {
+			number = Integer.parseInt(value);
+		} catch(NumberFormatException exception) {
+			throw new IllegalArgumentException("invalid value " + value + " in '" + entry + "'");
+		}
+		if(number < min || number > max)
+			throw new IllegalArgumentException(value + " is out of range " + min + "-" + max + " in '" + entry + "'");
+		return number;
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+		private final BitSet minutes, hours, daysOfMonth, months, daysOfWeek;
+		private final boolean daysOfMonthRestricted, daysOfWeekRestricted;
+
+		private long nextTime;
+
+		Entry(BitSet minutes, BitSet hours, BitSet daysOfMonth, BitSet months, BitSet daysOfWeek, boolean daysOfMonthRestricted, boolean daysOfWeekRestricted) {
+			if(minutes.isEmpty() || hours.isEmpty() || daysOfMonth.isEmpty() || months.isEmpty() || daysOfWeek.isEmpty())
+				throw new IllegalArgumentException("empty field");
+			this.minutes = minutes;
+			this.hours = hours;
+			this.daysOfMonth = daysOfMonth;
+			this.months = months;
+			this.daysOfWeek = daysOfWeek;
+			this.daysOfMonthRestricted = daysOfMonthRestricted;
+			this.daysOfWeekRestricted = daysOfWeekRestricted;
+		}
+
+		long next(long after, Calendar calendar) {
+			// Setting fields could resolve a repeated local time to its first
+			// occurrence, so moves within the hour are done on the instant
+			calendar.setTimeInMillis(after - floorMod(after, MINUTE) + MINUTE);
+			int lastYear = calendar.get(Calendar.YEAR) + MAX_YEARS;
+
+			while(calendar.get(Calendar.YEAR) <= lastYear) {
+				int month = calendar.get(Calendar.MONTH) + 1;
+				int nextMonth = months.nextSetBit(month);
+				if(nextMonth != month) {
+					if(nextMonth == -1) {
+						nextMonth = months.nextSetBit(1);
+						calendar.add(Calendar.YEAR, 1);
+					}
+					setDay(calendar, nextMonth, 1);
+					continue;
+				}
+
+				int day = calendar.get(Calendar.DAY_OF_MONTH);
+				if(!matchesDay(calendar, day)) {
+					int nextDay = day + 1;
+					// Without a day of week restriction, skip straight to the
+					// next allowed day of the month
+					if(!daysOfWeekRestricted)
+						nextDay = daysOfMonth.nextSetBit(nextDay);
+					if(nextDay == -1 || nextDay > calendar.getActualMaximum(Calendar.DAY_OF_MONTH)) {
+						calendar.add(Calendar.MONTH, 1);
+						setDay(calendar, calendar.get(Calendar.MONTH) + 1, 1);
+					} else
+						setDay(calendar, month, nextDay);
+					continue;
+				}
+
+				int hour = calendar.get(Calendar.HOUR_OF_DAY);
+				int nextHour = hours.nextSetBit(hour);
+				if(nextHour == -1) {
+					calendar.add(Calendar.DAY_OF_MONTH, 1);
+					setDay(calendar, calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+					continue;
+				}
+				if(nextHour != hour) {
+					// A later hour is after the current time even if it is
+					// repeated, so its fields can be set
+					calendar.set(Calendar.HOUR_OF_DAY, nextHour);
+					calendar.set(Calendar.MINUTE, 0);
+					// A DST gap moves the time past the hour that was set
+					if(calendar.get(Calendar.HOUR_OF_DAY) != nextHour)
+						return calendar.getTimeInMillis();
+					// A repeated hour resolves to its second occurrence, go
+					// back to the first so it fires then
+					long time = calendar.getTimeInMillis();
+					int shift = getRepeatShift(time, calendar.getTimeZone());
+					if(shift > 0)
+						calendar.setTimeInMillis(time - shift);
+					continue;
+				}
+
+				int minute = calendar.get(Calendar.MINUTE);
+				int nextMinute = minutes.nextSetBit(minute);
+				if(nextMinute == -1) {
+					calendar.add(Calendar.MINUTE, 60 - minute);
+					continue;
+				}
+				calendar.add(Calendar.MINUTE, nextMinute - minute);
+				long time = calendar.getTimeInMillis();
+				if(getRepeatShift(time, calendar.getTimeZone()) == 0)
+					return time;
+				calendar.add(Calendar.MINUTE, 60 - nextMinute);
+			}
+			return -1;
+		}
+
+		/**
+		 * @return How far the clocks were turned back if the local time at the
+		 *         given instant already occurred that much earlier, otherwise
+		 *         0.
+		 */
+		private static int getRepeatShift(long time, TimeZone timeZone) {
+			int offset = timeZone.getOffset(time);
+			int shift = timeZone.getOffset(time - MAX_SHIFT) - offset;
+			return shift > 0 && timeZone.getOffset(time - shift) == offset + shift ? shift : 0;
+		}
+
+		private static long floorMod(long value, long divisor) {
+			long mod = value % divisor;
+			return mod < 0 ? mod + divisor : mod;
+		}
+
+		private boolean matchesDay(Calendar calendar, int day) {
+			boolean dayOfMonth = daysOfMonth.get(day);
+			boolean dayOfWeek = daysOfWeek.get(calendar.get(Calendar.DAY_OF_WEEK) - 1);
+			if(daysOfMonthRestricted && daysOfWeekRestricted)
+				return dayOfMonth || dayOfWeek;
+			return dayOfMonth && dayOfWeek;
+		}
+
+		private static void setDay(Calendar calendar, int month, int day) {
+			calendar.set(Calendar.MONTH, month - 1);
+			calendar.set(Calendar.DAY_OF_MONTH, day);
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+		}
+
+		@Override
+		public int compareTo(Entry entry) {
+			// Entries that never fire sort last
+			long time = nextTime == -1 ? Long.MAX_VALUE : nextTime;
+			long otherTime = entry.nextTime == -1 ? Long.MAX_VALUE : entry.nextTime;
+			return time < otherTime ? -1 : time == otherTime ? 0 : 1;
+		}
+	}
+}
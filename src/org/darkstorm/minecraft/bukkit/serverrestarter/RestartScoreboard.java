@@ -0,0 +1,147 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.scoreboard.*;
+
+/**
+ * Sidebar countdown display. The resolved score entry and the last rendered
+ * value are cached so that updates only reach the network when the displayed
+ * number changes. Players are assigned the scoreboard once when it is enabled
+ * and again when they join.
+ */
+public class RestartScoreboard {
+	private final Server server;
+
+	private Scoreboard scoreboard;
+	private Objective objective;
+	private Score score;
+	private int lastValue;
+
+	private String title, text, scoreType;
+	private long unit;
+
+	public RestartScoreboard(Server server) {
+		if(server == null)
+			throw new NullPointerException();
+		this.server = server;
+	}
+
+	public boolean isEnabled() {
+		return scoreboard != null;
+	}
+
+	public Scoreboard getScoreboard() {
+		return scoreboard;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public void setTitle(String title) {
+		if(title == null)
+			throw new NullPointerException();
+		this.title = title;
+		if(scoreboard != null)
+			objective.setDisplayName(title);
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public String getScoreType() {
+		return scoreType;
+	}
+
+	public void setFormat(String text, String scoreType, long remaining) {
+		if(text == null || scoreType == null)
+			throw new NullPointerException();
+		long unit = getUnitMillis(scoreType);
+		String oldText = this.text;
+		this.text = text;
+		this.scoreType = scoreType;
+		this.unit = unit;
+		if(scoreboard != null) {
+			if(!text.equals(oldText)) {
+				scoreboard.resetScores(server.getOfflinePlayer(oldText));
+				score = objective.getScore(server.getOfflinePlayer(text));
+			}
+			lastValue = getValue(remaining);
+			score.setScore(lastValue);
+		}
+	}
+
+	public void enable(long remaining) {
+		if(text == null || scoreType == null)
+			throw new NullPointerException("No scoreboard format specified");
+		if(scoreboard != null)
+			disable();
+		scoreboard = server.getScoreboardManager().getNewScoreboard();
+		objective = scoreboard.registerNewObjective("restart_display", "dummy");
+		objective.setDisplaySlot(DisplaySlot.SIDEBAR);
+		objective.setDisplayName(title);
+		score = objective.getScore(server.getOfflinePlayer(text));
+		lastValue = getValue(remaining);
+		score.setScore(lastValue);
+		for(Player player : server.getOnlinePlayers())
+			player.setScoreboard(scoreboard);
+	}
+
+	public void disable() {
+		if(scoreboard == null)
+			return;
+		objective.unregister();
+		scoreboard = null;
+		objective = null;
+		score = null;
+	}
+
+	public void update(long remaining) {
+		if(scoreboard == null)
+			return;
+		int value = getValue(remaining);
+		if(value != lastValue) {
+			lastValue = value;
+			score.setScore(value);
+		}
+	}
+
+	public void show(Player player) {
+		if(scoreboard != null)
+			player.setScoreboard(scoreboard);
+	}
+
+	/**
+	 * @return Milliseconds until the displayed value next changes, or
+	 *         Long.MAX_VALUE if the scoreboard is disabled.
+	 */
+	public long getTimeUntilChange(long remaining) {
+		if(scoreboard == null)
+			return Long.MAX_VALUE;
+		// The displayed value drops once remaining falls below a unit boundary
+		return remaining % unit + 1;
+	}
+
+	private int getValue(long remaining) {
+		return (int) (remaining / unit + 1);
+	}
+
+	public static long getUnitMillis(String type) {
+		if(type.equalsIgnoreCase("d"))
+			return TimeUnit.DAYS.toMillis(1);
+		else if(type.equalsIgnoreCase("h"))
+			return TimeUnit.HOURS.toMillis(1);
+		else if(type.equalsIgnoreCase("m"))
+			return TimeUnit.MINUTES.toMillis(1);
+		else if(type.equalsIgnoreCase("s"))
+			return TimeUnit.SECONDS.toMillis(1);
+		else if(type.equalsIgnoreCase("ms"))
+			return 1;
+		else
+			throw new IllegalArgumentException();
+	}
+}
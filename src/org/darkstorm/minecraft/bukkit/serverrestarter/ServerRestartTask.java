@@ -5,80 +5,315 @@ import java.util.concurrent.TimeUnit;
 
 import org.bukkit.*;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.darkstorm.minecraft.bukkit.config.DurationCodec;
 
 public class ServerRestartTask implements Runnable {
-	private final ServerRestarter plugin;
-	private final List<Action> actions = new ArrayList<Action>();
-	private final long startTime, restartTime;
+	private final Plugin plugin;
+	private final Handler handler;
+	private final boolean adaptive;
+
+	private ActionPlan plan;
+	private long deadline;
+	// Time left as of the last run, which every action before the cursor has
+	// already been checked against
+	private long lastTimeLeft;
+	private int cursor;
+	private List<Action> catchUp;
+
+	private int taskId = -1;
+	private boolean cancelled;
+
+	private PlayerAction[] playerActions = new PlayerAction[8];
+	// Time spent on each player action in the current dispatch
+	private long[] playerActionTimes = new long[8];
+	private ServerRestarterMetrics metrics;
+
+	public ServerRestartTask(Plugin plugin, Handler handler, ActionPlan plan, long restartTime) {
+		this(plugin, handler, plan, restartTime, false);
+	}
 
-	public ServerRestartTask(ServerRestarter plugin, long restartTime) {
+	/**
+	 * @param adaptive
+	 *            If true, the task sleeps until the next action deadline or
+	 *            scoreboard change instead of running every tick.
+	 */
+	public ServerRestartTask(Plugin plugin, Handler handler, ActionPlan plan, long restartTime, boolean adaptive) {
+		if(plugin == null || handler == null || plan == null)
+			throw new NullPointerException();
 		this.plugin = plugin;
-		this.restartTime = restartTime;
-		startTime = System.currentTimeMillis();
+		this.handler = handler;
+		this.plan = plan;
+		this.adaptive = adaptive;
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(restartTime);
+		lastTimeLeft = restartTime;
+		cursor = plan.seek(restartTime);
+		catchUp = getOrderDependent(plan, 0, cursor, null, null);
+	}
+
+	public synchronized void start() {
+		if(cancelled || taskId != -1)
+			throw new IllegalStateException("Task already started");
+		if(adaptive)
+			taskId = plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, this, 1);
+		else
+			taskId = plugin.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, this, 1, 1);
 	}
 
-	public synchronized void register(Action action) {
-		if(action instanceof OrderDependentAction || !action.activate(getRemainingTime()))
-			actions.add(action);
+	public synchronized void cancel() {
+		cancelled = true;
+		if(taskId != -1)
+			plugin.getServer().getScheduler().cancelTask(taskId);
+		taskId = -1;
+	}
+
+	/**
+	 * @param metrics
+	 *            Receives the time spent by each run and action, or null.
+	 */
+	public synchronized void setMetrics(ServerRestarterMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	@Override
 	public synchronized void run() {
+		if(cancelled)
+			return;
+		if(metrics == null) {
+			countDown();
+			return;
+		}
+		long start = System.nanoTime();
+		countDown();
+		metrics.recordRun(System.nanoTime() - start);
+	}
+
+	private void countDown() {
 		long timeLeft = getRemainingTime();
-		Iterator<Action> actions = this.actions.iterator();
-		List<OrderDependentAction> orderedActions = new ArrayList<OrderDependentAction>();
-		while(actions.hasNext()) {
-			Action action = actions.next();
-			if(action.activate(timeLeft)) {
-				if(!(action instanceof OrderDependentAction)) {
-					action.perform();
-					actions.remove();
-				} else
-					orderedActions.add((OrderDependentAction) action);
+		int playerActionCount = 0;
+		// Order dependent actions that were already overdue when the countdown
+		// started still run once, so e.g. the scoreboard is set up
+		if(!catchUp.isEmpty()) {
+			for(Action action : catchUp)
+				playerActionCount = fire(action, timeLeft, playerActionCount);
+			catchUp.clear();
+		}
+		Action action;
+		while(cursor < plan.size() && (action = plan.get(cursor)).activate(timeLeft)) {
+			cursor++;
+			playerActionCount = fire(action, timeLeft, playerActionCount);
+			handler.onActionFired(action, action.getActivationTime() - timeLeft);
+		}
+		lastTimeLeft = timeLeft;
+		if(playerActionCount > 0)
+			dispatch(playerActionCount);
+		handler.onUpdate(timeLeft);
+		if(timeLeft <= 0)
+			handler.onRestart();
+		else if(adaptive && !cancelled)
+			taskId = plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, this, getTicksUntilWakeup(timeLeft));
+	}
+
+	private int fire(Action action, long timeLeft, int playerActionCount) {
+		if(action instanceof PlayerAction) {
+			if(playerActionCount == playerActions.length) {
+				playerActions = Arrays.copyOf(playerActions, playerActionCount * 2);
+				playerActionTimes = new long[playerActions.length];
 			}
+			playerActions[playerActionCount++] = (PlayerAction) action;
+		} else if(metrics != null) {
+			long start = System.nanoTime();
+			action.perform();
+			metrics.recordAction(action, System.nanoTime() - start);
+		} else
+			action.perform();
+		return playerActionCount;
+	}
+
+	/**
+	 * Applies every player action that came due this tick in a single pass
+	 * over the online players.
+	 */
+	private void dispatch(int count) {
+		if(metrics != null) {
+			dispatchTimed(count);
+			return;
+		}
+		for(int i = 0; i < count; i++)
+			playerActions[i].performGlobal();
+		for(Player player : plugin.getServer().getOnlinePlayers()) {
+			Location location = player.getLocation();
+			for(int i = 0; i < count; i++)
+				playerActions[i].perform(player, location);
 		}
-		if(!orderedActions.isEmpty()) {
-			Collections.sort(orderedActions, new OrderDependentActionComparator());
-			for(OrderDependentAction action : orderedActions) {
-				action.perform();
-				this.actions.remove(action);
+		Arrays.fill(playerActions, 0, count, null);
+	}
+
+	/**
+	 * Dispatches like dispatch(), adding up the time each action takes over
+	 * all players with one clock read per action and player.
+	 */
+	private void dispatchTimed(int count) {
+		long[] times = playerActionTimes;
+		long time = System.nanoTime();
+		for(int i = 0; i < count; i++) {
+			playerActions[i].performGlobal();
+			long now = System.nanoTime();
+			times[i] = now - time;
+			time = now;
+		}
+		for(Player player : plugin.getServer().getOnlinePlayers()) {
+			Location location = player.getLocation();
+			time = System.nanoTime();
+			for(int i = 0; i < count; i++) {
+				playerActions[i].perform(player, location);
+				long now = System.nanoTime();
+				times[i] += now - time;
+				time = now;
 			}
 		}
-		plugin.updateScoreboard();
-		if(timeLeft <= 0)
-			plugin.handleRestart();
+		for(int i = 0; i < count; i++)
+			metrics.recordAction(playerActions[i], times[i]);
+		Arrays.fill(playerActions, 0, count, null);
+	}
+
+	private long getTicksUntilWakeup(long timeLeft) {
+		long delay = timeLeft;
+		// Actions activate once the remaining time drops below their time
+		if(cursor < plan.size())
+			delay = Math.min(delay, timeLeft - plan.getActivationTime(cursor) + 1);
+		delay = Math.min(delay, handler.getTimeUntilUpdate(timeLeft));
+		return Math.max(1, (delay + 49) / 50);
+	}
+
+	/**
+	 * Replaces the plan without restarting the countdown. Actions that are in
+	 * both plans keep their state, so the plans should share the instances of
+	 * unchanged actions. New actions that are already overdue are skipped,
+	 * except order dependent ones, which are caught up on the next run.
+	 */
+	public synchronized void setPlan(ActionPlan plan) {
+		if(plan == null)
+			throw new NullPointerException();
+		Set<Action> previous = Collections.newSetFromMap(new IdentityHashMap<Action, Boolean>());
+		previous.addAll(this.plan.getActions());
+		Set<Action> pending = Collections.newSetFromMap(new IdentityHashMap<Action, Boolean>());
+		pending.addAll(catchUp);
+
+		int cursor = plan.seek(lastTimeLeft);
+		catchUp = getOrderDependent(plan, 0, cursor, previous, pending);
+		this.plan = plan;
+		this.cursor = cursor;
+		wakeUp();
+	}
+
+	/**
+	 * Moves the deadline so the given time is left. Actions the countdown
+	 * jumps over are skipped, except order dependent ones, and actions it
+	 * moves back before fire again once they come due.
+	 */
+	public synchronized void setRemainingTime(long remaining) {
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remaining);
+		int cursor = plan.seek(remaining);
+		if(cursor > this.cursor)
+			catchUp.addAll(getOrderDependent(plan, this.cursor, cursor, null, null));
+		this.cursor = cursor;
+		lastTimeLeft = remaining;
+		wakeUp();
+	}
+
+	/**
+	 * @return The order dependent actions in [start, end) of the plan, leaving
+	 *         out any that are in previous but not in pending.
+	 */
+	private static List<Action> getOrderDependent(ActionPlan plan, int start, int end, Set<Action> previous, Set<Action> pending) {
+		List<Action> actions = new ArrayList<Action>();
+		for(int i = 0; i < plan.getOrderDependentCount(); i++) {
+			int index = plan.getOrderDependentIndex(i);
+			if(index >= end)
+				break;
+			Action action = plan.get(index);
+			if(index >= start && (previous == null || !previous.contains(action) || pending.contains(action)))
+				actions.add(action);
+		}
+		return actions;
+	}
+
+	/**
+	 * Makes an adaptive countdown run on the next tick instead of whenever it
+	 * was going to wake up, so changes take effect right away.
+	 */
+	private void wakeUp() {
+		if(!adaptive || cancelled || taskId == -1)
+			return;
+		plugin.getServer().getScheduler().cancelTask(taskId);
+		taskId = plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, this, 1);
+	}
+
+	public ActionPlan getPlan() {
+		return plan;
 	}
 
 	public long getRemainingTime() {
-		return restartTime - (System.currentTimeMillis() - startTime);
+		return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+	}
+
+	/**
+	 * Receives countdown events on the main thread.
+	 */
+	public static interface Handler {
+		/**
+		 * @param late
+		 *            How many milliseconds after its configured time the
+		 *            action fired.
+		 */
+		public void onActionFired(Action action, long late);
+
+		public void onUpdate(long timeLeft);
+
+		/**
+		 * @return Milliseconds until onUpdate next has something to do, used
+		 *         to decide when an adaptive countdown wakes up.
+		 */
+		public long getTimeUntilUpdate(long timeLeft);
+
+		public void onRestart();
 	}
 
 	public static interface Action {
 		public boolean activate(long timeLeft);
 
 		public void perform();
-	}
 
-	public static interface OrderDependentAction extends Action, Comparable<OrderDependentAction> {
 		public long getActivationTime();
+	}
 
-		@Override
-		public int compareTo(OrderDependentAction action);
+	/**
+	 * An action applied to each online player. Player actions that come due
+	 * in the same tick are dispatched together in one pass over the players.
+	 */
+	public static interface PlayerAction extends Action {
+		public void perform(Player player, Location location);
+
+		/**
+		 * Called once per dispatch, before any player is visited.
+		 */
+		public void performGlobal();
 	}
 
-	private static final class OrderDependentActionComparator implements Comparator<OrderDependentAction> {
+	public static interface OrderDependentAction extends Action, Comparable<OrderDependentAction> {
 		@Override
-		public int compare(OrderDependentAction action1, OrderDependentAction action2) {
-			return action1.compareTo(action2);
-		}
+		public int compareTo(OrderDependentAction action);
 	}
 
-	public static class MessageAction implements Action {
-		private final String message;
+	public static class MessageAction implements PlayerAction {
+		private final MessageTemplate message;
 		private final long time;
 
+		private String rendered;
+
 		public MessageAction(String message, long time) {
-			this.message = message;
+			this.message = MessageTemplate.compile(message);
 			this.time = time;
 		}
 
@@ -89,16 +324,45 @@ public class ServerRestartTask implements Runnable {
 
 		@Override
 		public void perform() {
-			Bukkit.getServer().broadcastMessage(message);
+			Bukkit.getServer().broadcastMessage(render());
+		}
+
+		@Override
+		public void perform(Player player, Location location) {
+			// Same audience as broadcastMessage()
+			if(player.hasPermission(Server.BROADCAST_CHANNEL_USERS))
+				player.sendMessage(rendered);
+		}
+
+		@Override
+		public void performGlobal() {
+			rendered = render();
+			Bukkit.getServer().getConsoleSender().sendMessage(rendered);
+		}
+
+		private String render() {
+			if(!message.hasPlaceholders())
+				return message.render(time, 0, null);
+			int players = message.uses(MessageTemplate.Placeholder.PLAYERS) ? Bukkit.getServer().getOnlinePlayers().length : 0;
+			return message.render(time, players, ServerRestarter.getInstance().getRestartReason());
+		}
+
+		@Override
+		public long getActivationTime() {
+			return time;
+		}
+
+		public MessageTemplate getMessage() {
+			return message;
 		}
 
 		@Override
 		public String toString() {
-			return "message:" + fromTime(time) + ":" + message;
+			return "message:" + DurationCodec.format(time) + ":" + message;
 		}
 	}
 
-	public static class SoundAction implements Action {
+	public static class SoundAction implements PlayerAction {
 		private final Sound sound;
 		private final float volume, pitch;
 		private final long time;
@@ -121,9 +385,35 @@ public class ServerRestartTask implements Runnable {
 				player.playSound(player.getLocation(), sound, volume, pitch);
 		}
 
+		@Override
+		public void perform(Player player, Location location) {
+			player.playSound(location, sound, volume, pitch);
+		}
+
+		@Override
+		public void performGlobal() {
+		}
+
+		@Override
+		public long getActivationTime() {
+			return time;
+		}
+
+		public Sound getSound() {
+			return sound;
+		}
+
+		public float getVolume() {
+			return volume;
+		}
+
+		public float getPitch() {
+			return pitch;
+		}
+
 		@Override
 		public String toString() {
-			return "sound:" + fromTime(time) + ":" + sound.name() + ":" + volume + ":" + pitch;
+			return "sound:" + DurationCodec.format(time) + ":" + sound.name() + ":" + volume + ":" + pitch;
 		}
 	}
 
@@ -137,6 +427,7 @@ public class ServerRestartTask implements Runnable {
 
 		private final Type type;
 		private final String argument, secondArgument;
+		private final MessageTemplate template;
 		private final long time;
 
 		public ScoreboardAction(Type type, long time) {
@@ -167,6 +458,8 @@ public class ServerRestartTask implements Runnable {
 			argument = text;
 			secondArgument = scoreType;
 			this.time = time;
+			// Colors are translated once here rather than on every fire
+			template = text != null ? MessageTemplate.compile(text) : null;
 		}
 
 		@Override
@@ -185,10 +478,10 @@ public class ServerRestartTask implements Runnable {
 				plugin.disableScoreboard();
 				break;
 			case SET_TITLE:
-				plugin.setScoreboardTitle(argument);
+				plugin.setScoreboardTitle(template);
 				break;
 			case SET_FORMAT:
-				plugin.setScoreboardFormat(argument, secondArgument);
+				plugin.setScoreboardFormat(template, secondArgument);
 				break;
 			default:
 			}
@@ -202,47 +495,49 @@ public class ServerRestartTask implements Runnable {
 		@Override
 		public int compareTo(OrderDependentAction action) {
 			if(time == action.getActivationTime() && action instanceof ScoreboardAction)
-				if((type == Type.SET_TITLE || type == Type.SET_FORMAT) && ((ScoreboardAction) action).type == Type.ENABLE)
-					return -1;
+				return compare(getPriority(), ((ScoreboardAction) action).getPriority());
 			return -compare(time, action.getActivationTime());
 		}
 
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @return The title or format text, or null for enable and disable.
+		 */
+		public String getText() {
+			return argument;
+		}
+
+		/**
+		 * @return The score type for set format, otherwise null.
+		 */
+		public String getScoreType() {
+			return secondArgument;
+		}
+
+		private int getPriority() {
+			// Title and format must be in place before the scoreboard is shown
+			return type == Type.ENABLE ? 1 : 0;
+		}
+
 		@Override
 		public String toString() {
 			switch(type) {
 			case ENABLE:
 			case DISABLE:
-				return "scoreboard:" + fromTime(time) + ":enable";
+				return "scoreboard:" + DurationCodec.format(time) + ":enable";
 			case SET_TITLE:
-				return "scoreboard:" + fromTime(time) + ":settitle:" + argument;
+				return "scoreboard:" + DurationCodec.format(time) + ":settitle:" + argument;
 			case SET_FORMAT:
-				return "scoreboard:" + fromTime(time) + ":setformat:" + secondArgument + ":" + argument;
+				return "scoreboard:" + DurationCodec.format(time) + ":setformat:" + secondArgument + ":" + argument;
 			default:
-				return "scoreboard:" + fromTime(time) + ":unknown:" + argument + ":" + secondArgument;
+				return "scoreboard:" + DurationCodec.format(time) + ":unknown:" + argument + ":" + secondArgument;
 			}
 		}
 	}
 
-	private static String fromTime(long time) {
-		int days = (int) TimeUnit.MILLISECONDS.toDays(time);
-		int hours = (int) TimeUnit.MILLISECONDS.toHours(time - TimeUnit.DAYS.toMillis(days));
-		int minutes = (int) TimeUnit.MILLISECONDS.toMinutes(time - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(hours));
-		int seconds = (int) TimeUnit.MILLISECONDS.toSeconds(time - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(hours) - TimeUnit.MINUTES.toMillis(minutes));
-		int milliseconds = (int) (time - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(hours) - TimeUnit.MINUTES.toMillis(minutes) - TimeUnit.SECONDS.toMillis(seconds));
-		StringBuilder builder = new StringBuilder();
-		if(days > 0)
-			builder.append(days).append('d');
-		if(hours > 0)
-			builder.append(hours).append('h');
-		if(minutes > 0)
-			builder.append(minutes).append('m');
-		if(seconds > 0)
-			builder.append(seconds).append('s');
-		if(milliseconds > 0 || builder.length() == 0)
-			builder.append(milliseconds).append("ms");
-		return builder.toString();
-	}
-
 	private static int compare(long x, long y) {
 		return (x < y) ? -1 : ((x == y) ? 0 : 1);
 	}
@@ -1,149 +1,660 @@
 package org.darkstorm.minecraft.bukkit.serverrestarter;
 
 import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.*;
+import java.util.concurrent.*;
+
+import javax.management.*;
 
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.*;
 import org.bukkit.command.*;
-import org.bukkit.entity.Player;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scoreboard.*;
 import org.darkstorm.minecraft.bukkit.config.*;
 import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
-import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.MessageAction;
-import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.ScoreboardAction;
-import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.SoundAction;
 
 public class ServerRestarter extends JavaPlugin {
-	private static final Pattern colorPattern = Pattern.compile("(?i)&[0-9A-FK-OR]");
+	// How long runtime changes are held back so bursts become one write
+	private static final long WRITE_BEHIND_DELAY = 1000;
+	// Nodes of override.yml, which keeps /restart changes across reloads
+	private static final String OVERRIDE_RESTART_AT = "restart_at", OVERRIDE_MESSAGE = "message";
+	// How long before the first action the population policy decides whether
+	// to defer the restart
+	private static final long POPULATION_CHECK_LEAD = 1000;
 
 	private static ServerRestarter instance;
 
+	private File configFile;
+	private ConfigCache configCache;
 	private Config config;
+	private ConfigSnapshot settings;
+	private ConfigWatcher watcher;
+	private ConfigWriteBehind overrideWriter;
+
+	private ScheduledThreadPoolExecutor ioExecutor;
 
 	private ServerRestartTask task;
-	private int taskId;
-	private List<Action> defaultActions;
+	private final ActionTypeRegistry actionTypes = new ActionTypeRegistry();
+	private ActionPlan plan;
+	// Compiled actions by node and source, read by the config watcher
+	private volatile Map<ActionKey, Action> compiledActions = Collections.emptyMap();
+
+	private MessageTemplate restartMessage;
+	private boolean restarting, customTime;
+	private String restartCause, countdownCause;
+	private long scheduledRestartTime, restartTime;
+	private int restartPlayers;
+
+	private final Histogram drift = new Histogram();
+	private long driftWarning;
 
-	private String restartMessage;
-	private boolean restarting;
+	private RestartScoreboard scoreboard;
+	private KickPipeline kickPipeline;
+	private StateFile stateFile;
+	private HealthMonitor healthMonitor;
+	private PopulationPolicy populationPolicy;
+	private RestartSchedule schedule;
 
-	private Scoreboard scoreboard;
-	private Objective objective;
-	private String scoreboardTitle, scoreboardText, scoreboardScoreType;
+	private final ServerRestarterMetrics metrics = new ServerRestarterMetrics(this);
+	private ObjectName metricsName;
+	private ScheduledFuture<?> metricsWriter;
+	private volatile File metricsFile;
+	private long metricsInterval;
+	private boolean metricsWriteFailed;
+	private ProgressiveSaveAction progressiveSaveAction;
+	private PopulationAction populationWindowAction, populationCheckAction;
+	private long countdownLead;
+	private ProgressiveSave progressiveSave;
 
 	public ServerRestarter() {
 		instance = this;
+		ActionTypes.registerDefaults(actionTypes);
 	}
 
 	@Override
 	public void onEnable() {
 		if(!getDataFolder().exists())
 			getDataFolder().mkdir();
-		File configFile = new File(getDataFolder(), "config.yml");
-		ConfigLoader configLoader = new YamlConfigLoader(configFile);
+		ioExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ServerRestarter I/O");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Delayed writes are flushed explicitly on disable instead
+		ioExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		scoreboard = new RestartScoreboard(getServer());
+		getServer().getPluginManager().registerEvents(new ServerRestarterListener(this), this);
 
-		if(!configFile.exists())
-			config = configLoader.load(ServerRestarterConfigNodes.values());
-		else
-			config = configLoader.load(excludeMessages(ServerRestarterConfigNodes.values()));
+		configFile = new File(getDataFolder(), "config.yml");
+		configCache = new ConfigCache(new File(getDataFolder(), "config.cache"), getDescription().getVersion(), actionTypes);
+		byte[] hash = hashConfig();
+		ConfigCache.Contents cached = hash != null ? configCache.read(hash, excludeMessages(ServerRestarterConfigNodes.values())) : null;
 
-		List<Action> defaultActions = new ArrayList<Action>();
-		for(String node : config.getSubNodes("actions")) {
-			String value = config.getString(node);
-			try {
-				String[] parts = value.split(":");
-				if(parts[0].equals("message")) {
-					String time = parts[1];
-					if(!Config.isTimeValue(time)) {
-						getLogger().warning("Action '" + node + "' has unknown time value '" + time + "'");
-						continue;
-					}
-					String message = value.substring(("message:" + time + ":").length());
-					defaultActions.add(new MessageAction(replaceColorCodes(message), Config.getTimeValue(time)));
-				} else if(parts[0].equals("sound")) {
-					String time = parts[1];
-					if(!Config.isTimeValue(time)) {
-						getLogger().warning("Action '" + node + "' has unknown time value '" + time + "'");
-						continue;
-					}
-					Sound sound;
-					try {
-						sound = Sound.valueOf(parts[2]);
-					} catch(Exception exception) {
-						getLogger().warning("Action '" + node + "' has unknown sound '" + parts[2] + "'");
-						continue;
-					}
-					defaultActions.add(new SoundAction(sound, Float.parseFloat(parts[3]), Float.parseFloat(parts[4]), Config.getTimeValue(time)));
-				} else if(parts[0].equals("scoreboard")) {
-					String time = parts[1];
-					if(!Config.isTimeValue(time)) {
-						getLogger().warning("Action '" + node + "' has unknown time value '" + time + "'");
-						continue;
+		final Map<ActionKey, Action> compiled;
+		final Map<String, String> invalid;
+		if(cached != null) {
+			config = cached.getConfig();
+			compiled = cached.getActions();
+			invalid = cached.getInvalid();
+		} else {
+			ConfigLoader configLoader = new YamlConfigLoader(configFile);
+			if(!configFile.exists())
+				config = configLoader.load(ServerRestarterConfigNodes.values());
+			else
+				config = configLoader.load(excludeMessages(ServerRestarterConfigNodes.values()));
+			compiled = new LinkedHashMap<ActionKey, Action>();
+			invalid = new LinkedHashMap<String, String>();
+			compilePlan(config, compiledActions, compiled, invalid);
+
+			final Config loaded = config;
+			final byte[] configHash = hash != null ? hash : hashConfig();
+			if(configHash != null) {
+				ioExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						saveConfigCache(configHash, loaded, compiled, invalid.keySet());
 					}
-					if(parts[2].equalsIgnoreCase("enable"))
-						defaultActions.add(new ScoreboardAction(ScoreboardAction.Type.ENABLE, Config.getTimeValue(time)));
-					else if(parts[2].equalsIgnoreCase("disable"))
-						defaultActions.add(new ScoreboardAction(ScoreboardAction.Type.DISABLE, Config.getTimeValue(time)));
-					else if(parts[2].equalsIgnoreCase("settitle")) {
-						String title = value.substring(("scoreboard:" + time + ":settitle:").length());
-						defaultActions.add(new ScoreboardAction(ScoreboardAction.Type.SET_TITLE, title, Config.getTimeValue(time)));
-					} else if(parts[2].equalsIgnoreCase("setformat")) {
-						String format = value.substring(("scoreboard:" + time + ":setformat:" + parts[3] + ":").length());
-						defaultActions.add(new ScoreboardAction(ScoreboardAction.Type.SET_FORMAT, format, parts[3], Config.getTimeValue(time)));
-					} else
-						getLogger().warning("Action '" + node + "' has unknown scoreboard action '" + parts[2] + "'");
-				} else
-					getLogger().warning("Action '" + node + "' is has unknown type '" + parts[0] + "'");
-			} catch(NumberFormatException exception) {
-				getLogger().warning("Action '" + node + "' has a non-number where a number is expected");
-			} catch(Exception exception) {
-				getLogger().warning("Action '" + node + "' is formatted wrong");
+				});
 			}
 		}
-		this.defaultActions = Collections.unmodifiableList(defaultActions);
-		restartMessage = replaceColorCodes(config.getString(ServerRestarterConfigNodes.KICK_MESSAGE));
-		resetTask(config.getTime(ServerRestarterConfigNodes.RESTART_TIME));
+		String errors = YamlConfigLoader.getErrorMessage(config);
+		if(errors != null)
+			getLogger().warning(errors);
+		for(Map.Entry<String, String> entry : invalid.entrySet())
+			getLogger().warning("Action '" + entry.getKey() + "' is invalid: " + entry.getValue());
+		settings = config.snapshot(ServerRestarterConfigNodes.values());
+		updateInternalActions(compiled.values());
+		plan = buildPlan(compiled.values());
+		compiledActions = compiled;
+		restartMessage = MessageTemplate.compile(settings.getString(ServerRestarterConfigNodes.KICK_MESSAGE));
+		driftWarning = settings.getTime(ServerRestarterConfigNodes.DRIFT_WARNING);
+		if(settings.getBoolean(ServerRestarterConfigNodes.CREATE_STATE_FILE))
+			stateFile = new StateFile(new File(settings.getString(ServerRestarterConfigNodes.STATE_FILE)), ioExecutor, getLogger());
+		updateSchedule();
+		File overrideFile = new File(getDataFolder(), "override.yml");
+		overrideWriter = new ConfigWriteBehind(overrideFile, ioExecutor, WRITE_BEHIND_DELAY, getLogger());
+		long overrideTime = -1;
+		if(settings.getBoolean(ServerRestarterConfigNodes.PERSIST_RUNTIME_CHANGES))
+			overrideTime = loadOverride(overrideFile);
+		resetTask(overrideTime != -1 ? overrideTime : getConfiguredRestartTime());
+		updateHealthMonitor();
+		updatePopulationPolicy();
+		registerMetrics();
+		updateMetricsWriter();
 
-		if(config.getBoolean(ServerRestarterConfigNodes.CREATE_STATE_FILE)) {
-			File file = new File(config.getString(ServerRestarterConfigNodes.STATE_FILE));
-			if(file.isDirectory())
-				getLogger().severe("Status file is a directory!");
+		if(settings.getBoolean(ServerRestarterConfigNodes.WATCH_CONFIG)) {
+			watcher = new ConfigWatcher(configFile, new ConfigWatcher.Listener() {
+				@Override
+				public void onChange(File file) {
+					loadConfigChanges();
+				}
+			}, getLogger());
 			try {
-				file.createNewFile();
+				watcher.start();
 			} catch(IOException exception) {
-				getLogger().severe("Unable to create status file!");
-				exception.printStackTrace();
+				getLogger().warning("Unable to watch config for changes: " + exception.getMessage());
+				watcher = null;
 			}
 		}
 
 		getLogger().info("ServerRestarter loaded.");
 	}
 
+	/**
+	 * Compiles the configured actions, reusing the previously compiled action
+	 * for every node whose value did not change.
+	 * 
+	 * @param compiled
+	 *            Receives the actions, keyed by node and value.
+	 * @param invalid
+	 *            Receives the error message of every action that failed to
+	 *            compile, by node.
+	 */
+	private void compilePlan(Config config, Map<ActionKey, Action> previous, Map<ActionKey, Action> compiled, Map<String, String> invalid) {
+		for(String node : config.getSubNodes("actions")) {
+			String value = config.getString(node);
+			ActionKey key = new ActionKey(node, value);
+			Action action = previous.get(key);
+			if(action == null) {
+				try {
+					action = actionTypes.compile(value);
+				} catch(ActionParseException exception) {
+					invalid.put(node, exception.getMessage());
+					continue;
+				}
+			}
+			compiled.put(key, action);
+		}
+	}
+
+	/**
+	 * Restores the restart time and message last set with /restart.
+	 * 
+	 * @return The time left until the saved restart, or -1 if there is none
+	 *         or it has passed.
+	 */
+	private long loadOverride(File file) {
+		String restartAt, message;
+		try {
+			YamlDocument document = YamlDocument.load(file);
+			restartAt = document.getValue(OVERRIDE_RESTART_AT);
+			message = document.getValue(OVERRIDE_MESSAGE);
+		} catch(IOException exception) {
+			getLogger().warning("Unable to read " + file.getName() + ": " + exception.getMessage());
+			return -1;
+		}
+		long remaining = -1;
+		if(restartAt != null && !restartAt.isEmpty()) {
+			try {
+				remaining = Long.parseLong(restartAt) - System.currentTimeMillis();
+			} catch(NumberFormatException exception) {}
+		}
+		if(remaining <= 0) {
+			// The restart it was set for has happened, or the server was down
+			// past it
+			if(restartAt != null || message != null)
+				clearOverride();
+			return -1;
+		}
+		customTime = true;
+		if(message != null && !message.isEmpty())
+			restartMessage = MessageTemplate.compile(message);
+		getLogger().info("Restored restart time " + DurationCodec.format(remaining) + " set with /restart.");
+		return remaining;
+	}
+
+	/**
+	 * Saves the restart time and message set with /restart to override.yml in
+	 * the background, if enabled. The configured restart_time and
+	 * kick_message are never changed.
+	 */
+	private void saveOverride() {
+		if(!settings.getBoolean(ServerRestarterConfigNodes.PERSIST_RUNTIME_CHANGES))
+			return;
+		String restartAt = customTime ? Long.toString(System.currentTimeMillis() + Math.max(0, task.getRemainingTime())) : "";
+		String message = restartMessage.getSource();
+		if(message.equals(settings.getString(ServerRestarterConfigNodes.KICK_MESSAGE)))
+			message = "";
+		overrideWriter.set(OVERRIDE_RESTART_AT, restartAt);
+		overrideWriter.set(OVERRIDE_MESSAGE, message);
+	}
+
+	private void clearOverride() {
+		overrideWriter.set(OVERRIDE_RESTART_AT, "");
+		overrideWriter.set(OVERRIDE_MESSAGE, "");
+	}
+
+	private byte[] hashConfig() {
+		if(!configFile.exists())
+			return null;
+		try {
+			return ConfigCache.hash(configFile);
+		} catch(IOException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache, unless config.yml changed since the hash was taken and
+	 * no longer matches what was parsed. Called off the main thread.
+	 */
+	private void saveConfigCache(byte[] hash, Config config, Map<ActionKey, Action> compiled, Collection<String> invalid) {
+		if(!Arrays.equals(hash, hashConfig()))
+			return;
+		try {
+			configCache.write(hash, config, compiled, invalid);
+		} catch(IOException exception) {
+			getLogger().warning("Unable to write config cache: " + exception.getMessage());
+		}
+	}
+
+	/**
+	 * Parses the config and compiles any changed actions on the watcher
+	 * thread, then hands the result to the main thread.
+	 */
+	private void loadConfigChanges() {
+		byte[] hash = hashConfig();
+		final Config config;
+		try {
+			config = new YamlConfigLoader(configFile).reload(excludeMessages(ServerRestarterConfigNodes.values()), getLogger());
+		} catch(IOException exception) {
+			getLogger().warning("Unable to reload config: " + exception.getMessage());
+			return;
+		} catch(InvalidConfigurationException exception) {
+			getLogger().warning("Ignoring config change, syntax error in configuration");
+			return;
+		}
+		final ConfigSnapshot settings = config.snapshot(ServerRestarterConfigNodes.values());
+		Map<ActionKey, Action> previous = compiledActions;
+		final Map<ActionKey, Action> compiled = new LinkedHashMap<ActionKey, Action>();
+		Map<String, String> invalid = new LinkedHashMap<String, String>();
+		compilePlan(config, previous, compiled, invalid);
+		for(Map.Entry<String, String> entry : invalid.entrySet())
+			getLogger().warning("Action '" + entry.getKey() + "' is invalid: " + entry.getValue());
+		if(hash != null) {
+			final byte[] configHash = hash;
+			final Collection<String> invalidNodes = invalid.keySet();
+			try {
+				ioExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						saveConfigCache(configHash, config, compiled, invalidNodes);
+					}
+				});
+			} catch(RejectedExecutionException exception) {
+				// Disabled while reloading, the next start writes it
+			}
+		}
+
+		int added = 0, removed = 0;
+		for(ActionKey key : compiled.keySet())
+			if(!previous.containsKey(key))
+				added++;
+		for(ActionKey key : previous.keySet())
+			if(!compiled.containsKey(key))
+				removed++;
+		final int actionsAdded = added, actionsRemoved = removed;
+		if(!isEnabled())
+			return;
+		getServer().getScheduler().runTask(this, new Runnable() {
+			@Override
+			public void run() {
+				applyConfig(config, settings, compiled, actionsAdded, actionsRemoved);
+			}
+		});
+	}
+
+	private void applyConfig(Config config, ConfigSnapshot settings, Map<ActionKey, Action> compiled, int added, int removed) {
+		if(restarting || !isEnabled())
+			return;
+		ConfigSnapshot previous = this.settings;
+		this.config = config;
+		this.settings = settings;
+		compiledActions = compiled;
+		boolean internalChanged = updateInternalActions(compiled.values());
+		if(internalChanged || added > 0 || removed > 0) {
+			plan = buildPlan(compiled.values());
+			task.setPlan(plan);
+		}
+
+		// The countdown keeps running; only the difference is applied, and not
+		// at all if the time was set by command. A changed schedule is
+		// followed from now on.
+		long restartTime = settings.getTime(ServerRestarterConfigNodes.RESTART_TIME);
+		long previousTime = previous.getTime(ServerRestarterConfigNodes.RESTART_TIME);
+		if(updateSchedule()) {
+			if(!customTime)
+				moveRestart(getConfiguredRestartTime(), null);
+		} else if(schedule == null && restartTime != previousTime && !customTime)
+			moveRestart(Math.max(0, task.getRemainingTime() + restartTime - previousTime), null);
+		if(restartMessage.getSource().equals(previous.getString(ServerRestarterConfigNodes.KICK_MESSAGE)))
+			restartMessage = MessageTemplate.compile(settings.getString(ServerRestarterConfigNodes.KICK_MESSAGE));
+		driftWarning = settings.getTime(ServerRestarterConfigNodes.DRIFT_WARNING);
+		if(progressiveSaveAction == null)
+			stopProgressiveSave();
+		updateHealthMonitor();
+		updatePopulationPolicy();
+		updateMetricsWriter();
+		getLogger().info("Reloaded config (" + added + " actions added, " + removed + " removed).");
+	}
+
 	private synchronized void resetTask(long newTime) {
 		disableScoreboard();
+		stopProgressiveSave();
 		if(task != null)
-			getServer().getScheduler().cancelTask(taskId);
-		task = new ServerRestartTask(this, newTime);
-		for(Action action : defaultActions)
-			task.register(action);
-		taskId = getServer().getScheduler().scheduleSyncRepeatingTask(this, task, 1, 1);
+			task.cancel();
+		task = new ServerRestartTask(this, new TaskHandler(), plan, newTime, settings.getBoolean(ServerRestarterConfigNodes.ADAPTIVE_SCHEDULING));
+		task.setMetrics(metrics);
+		task.start();
+		countdownCause = null;
+		if(healthMonitor != null)
+			healthMonitor.reset();
+		if(populationPolicy != null)
+			populationPolicy.reset();
+		writeState();
+	}
+
+	/**
+	 * Moves the end of the running countdown without starting it over, e.g. to
+	 * restart early.
+	 * 
+	 * @param cause
+	 *            Why the server will restart when the countdown ends, or null
+	 *            to keep the current one.
+	 */
+	public void moveRestart(long remaining, String cause) {
+		if(restarting)
+			return;
+		task.setRemainingTime(remaining);
+		if(cause != null)
+			countdownCause = cause;
+		if(progressiveSave != null && progressiveSaveAction != null && remaining >= progressiveSaveAction.getActivationTime())
+			stopProgressiveSave();
+		writeState();
+	}
+
+	/**
+	 * Parses the schedule if it or its time zone changed.
+	 * 
+	 * @return Whether the schedule changed.
+	 */
+	private boolean updateSchedule() {
+		String source = settings.getString(ServerRestarterConfigNodes.RESTART_SCHEDULE).trim();
+		String timeZoneId = settings.getString(ServerRestarterConfigNodes.RESTART_TIMEZONE).trim();
+		TimeZone timeZone = timeZoneId.isEmpty() ? TimeZone.getDefault() : TimeZone.getTimeZone(timeZoneId);
+		if(source.isEmpty()) {
+			if(schedule == null)
+				return false;
+			schedule = null;
+			return true;
+		}
+		if(schedule != null && schedule.toString().equals(source + " (" + timeZone.getID() + ")"))
+			return false;
+		try {
+			schedule = RestartSchedule.parse(source, timeZone);
+		} catch(IllegalArgumentException exception) {
+			getLogger().warning("Invalid restart schedule: " + exception.getMessage());
+			schedule = null;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Milliseconds until the next restart by the schedule, or by
+	 *         restart_time if there is no schedule.
+	 */
+	private long getConfiguredRestartTime() {
+		long restartTime = settings.getTime(ServerRestarterConfigNodes.RESTART_TIME);
+		if(schedule == null)
+			return restartTime;
+		long now = System.currentTimeMillis();
+		long minUptime = settings.getTime(ServerRestarterConfigNodes.RESTART_MIN_UPTIME);
+		long next = schedule.next(Math.max(now, ManagementFactory.getRuntimeMXBean().getStartTime() + minUptime));
+		if(next == -1) {
+			getLogger().warning("Restart schedule never fires, using restart_time instead.");
+			return restartTime;
+		}
+		return next - now;
+	}
+
+	private void registerMetrics() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			metricsName = new ObjectName("org.darkstorm.minecraft.bukkit.serverrestarter:type=Metrics");
+			// Left over if the plugin was not disabled cleanly
+			if(server.isRegistered(metricsName))
+				server.unregisterMBean(metricsName);
+			server.registerMBean(metrics, metricsName);
+		} catch(JMException exception) {
+			getLogger().warning("Unable to register metrics MBean: " + exception.getMessage());
+			metricsName = null;
+		}
+	}
+
+	private void unregisterMetrics() {
+		if(metricsName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+		} catch(JMException exception) {}
+		metricsName = null;
+	}
+
+	/**
+	 * Starts, stops or reschedules writing the metrics file if its settings
+	 * changed.
+	 */
+	private void updateMetricsWriter() {
+		String path = settings.getString(ServerRestarterConfigNodes.METRICS_FILE).trim();
+		File file = path.isEmpty() ? null : new File(path);
+		long interval = settings.getTime(ServerRestarterConfigNodes.METRICS_INTERVAL);
+		if(file == null ? metricsFile == null : file.equals(metricsFile) && interval == metricsInterval)
+			return;
+		if(metricsWriter != null)
+			metricsWriter.cancel(false);
+		metricsWriter = null;
+		metricsFile = file;
+		metricsInterval = interval;
+		metricsWriteFailed = false;
+		if(file == null || interval <= 0)
+			return;
+		metricsWriter = ioExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				writeMetrics();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the metrics file. Called on the I/O executor.
+	 */
+	private void writeMetrics() {
+		File file = metricsFile;
+		if(file == null)
+			return;
+		try {
+			AtomicFile.write(file, metrics.toPrometheusText(), Charset.forName("UTF-8"));
+			metricsWriteFailed = false;
+		} catch(IOException exception) {
+			// Once per run of failures rather than every interval
+			if(!metricsWriteFailed)
+				getLogger().warning("Unable to write metrics file: " + exception.getMessage());
+			metricsWriteFailed = true;
+		}
+	}
+
+	private void updatePopulationPolicy() {
+		boolean enabled = settings.getBoolean(ServerRestarterConfigNodes.POPULATION_POLICY);
+		if(enabled && populationPolicy == null)
+			populationPolicy = new PopulationPolicy(this, getServer().getOnlinePlayers().length);
+		else if(!enabled)
+			populationPolicy = null;
+	}
+
+	private void updateHealthMonitor() {
+		boolean enabled = settings.getBoolean(ServerRestarterConfigNodes.HEALTH_MONITOR);
+		if(enabled && healthMonitor == null) {
+			healthMonitor = new HealthMonitor(this);
+			healthMonitor.start();
+		} else if(!enabled && healthMonitor != null) {
+			healthMonitor.stop();
+			healthMonitor = null;
+		}
+	}
+
+	/**
+	 * Queues a write of the state file with the current state:
+	 * <ul>
+	 * <li>state: running, restarting while players are kicked, or shutdown</li>
+	 * <li>started, uptime: JVM start time and uptime</li>
+	 * <li>scheduled: when the countdown ends or ended</li>
+	 * <li>restart, cause, message, players: when and why the restart began,
+	 * and how many players were online, once restarting</li>
+	 * <li>shutdown: when the server was told to shut down</li>
+	 * </ul>
+	 * Times are in epoch milliseconds.
+	 */
+	private void writeState() {
+		if(stateFile == null)
+			return;
+		RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+		long now = System.currentTimeMillis();
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		if(!restarting)
+			fields.put("state", "running");
+		else
+			fields.put("state", kickPipeline != null && kickPipeline.isFinished() ? "shutdown" : "restarting");
+		fields.put("started", runtime.getStartTime());
+		fields.put("uptime", runtime.getUptime());
+		fields.put("scheduled", restarting ? scheduledRestartTime : now + Math.max(0, task.getRemainingTime()));
+		if(restarting) {
+			fields.put("restart", restartTime);
+			fields.put("cause", restartCause);
+			fields.put("message", restartMessage.getSource());
+			fields.put("players", restartPlayers);
+			if(kickPipeline != null && kickPipeline.isFinished())
+				fields.put("shutdown", now);
+		}
+		stateFile.write(fields);
+	}
+
+	/**
+	 * Creates or replaces the actions the plugin adds to the plan itself, if
+	 * their settings changed.
+	 * 
+	 * @return Whether the plan has to be rebuilt.
+	 */
+	private boolean updateInternalActions(Collection<Action> compiled) {
+		boolean changed = false;
+		long saveTime = settings.getTime(ServerRestarterConfigNodes.PROGRESSIVE_SAVE_TIME);
+		if(saveTime <= 0 ? progressiveSaveAction != null : progressiveSaveAction == null || progressiveSaveAction.getActivationTime() != saveTime) {
+			progressiveSaveAction = saveTime > 0 ? new ProgressiveSaveAction(saveTime) : null;
+			changed = true;
+		}
+
+		long lead = Math.max(0, saveTime);
+		for(Action action : compiled)
+			lead = Math.max(lead, action.getActivationTime());
+		countdownLead = lead;
+
+		boolean population = settings.getBoolean(ServerRestarterConfigNodes.POPULATION_POLICY);
+		long maxSlip = settings.getTime(ServerRestarterConfigNodes.POPULATION_MAX_SLIP);
+		if(!population || maxSlip <= 0) {
+			changed |= populationWindowAction != null;
+			populationWindowAction = null;
+			populationCheckAction = null;
+		} else if(populationWindowAction == null || populationWindowAction.getActivationTime() != lead + maxSlip || populationCheckAction.getActivationTime() != lead + POPULATION_CHECK_LEAD) {
+			populationWindowAction = new PopulationAction(lead + maxSlip, true);
+			populationCheckAction = new PopulationAction(lead + POPULATION_CHECK_LEAD, false);
+			changed = true;
+		}
+		return changed;
+	}
+
+	private ActionPlan buildPlan(Collection<Action> compiled) {
+		List<Action> actions = new ArrayList<Action>(compiled);
+		if(progressiveSaveAction != null)
+			actions.add(progressiveSaveAction);
+		if(populationWindowAction != null) {
+			actions.add(populationWindowAction);
+			actions.add(populationCheckAction);
+		}
+		return new ActionPlan(actions);
+	}
+
+	private void stopProgressiveSave() {
+		if(progressiveSave == null)
+			return;
+		progressiveSave.stop();
+		progressiveSave = null;
 	}
 
 	@Override
 	public void onDisable() {
-		if(!restarting) {
-			if(config.getBoolean(ServerRestarterConfigNodes.CREATE_STATE_FILE)) {
-				File file = new File(config.getString(ServerRestarterConfigNodes.STATE_FILE));
-				if(file.isDirectory())
-					getLogger().severe("Status file is a directory!");
-				if(file.exists() && !file.delete())
-					getLogger().severe("Unable to delete status file!");
+		if(watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+		ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				overrideWriter.flush();
 			}
+		});
+		// A restart leaves the file for the scripts, a clean stop removes it
+		if(stateFile != null && !restarting)
+			stateFile.delete();
+		if(metricsWriter != null) {
+			metricsWriter.cancel(false);
+			metricsWriter = null;
+			ioExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					writeMetrics();
+				}
+			});
+		}
+		ioExecutor.shutdown();
+		try {
+			if(!ioExecutor.awaitTermination(5, TimeUnit.SECONDS))
+				getLogger().warning("Timed out waiting for pending writes");
+		} catch(InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		stopProgressiveSave();
+		if(healthMonitor != null) {
+			healthMonitor.stop();
+			healthMonitor = null;
 		}
+		unregisterMetrics();
 		getLogger().info("ServerRestarter unloaded.");
 	}
 
@@ -156,28 +667,45 @@ public class ServerRestarter extends JavaPlugin {
 	}
 
 	public void handleRestart() {
-		restarting = true;
-		if(config.getBoolean(ServerRestarterConfigNodes.CREATE_STATE_FILE)) {
-			File file = new File(config.getString(ServerRestarterConfigNodes.STATE_FILE));
-			if(file.isDirectory())
-				getLogger().severe("Status file is a directory!");
-			try {
-				file.createNewFile();
-			} catch(IOException exception) {
-				getLogger().severe("Unable to create status file!");
-				exception.printStackTrace();
-			}
-		}
-		for(Player player : getServer().getOnlinePlayers())
-			player.kickPlayer(replaceColorCodes(restartMessage));
-		getServer().shutdown();
+		handleRestart("manual");
 	}
 
-	private String replaceColorCodes(String message) {
-		Matcher matcher = colorPattern.matcher(message);
-		while(matcher.find())
-			message = message.substring(0, matcher.start()) + "\247" + message.substring(matcher.end() - 1);
-		return message;
+	/**
+	 * @param cause
+	 *            Why the server is restarting, as recorded in the state file.
+	 */
+	public void handleRestart(String cause) {
+		if(cause == null)
+			throw new NullPointerException();
+		if(restarting)
+			return;
+		long start = System.nanoTime();
+		startRestart(cause);
+		metrics.recordRestart(System.nanoTime() - start);
+	}
+
+	private void startRestart(String cause) {
+		restarting = true;
+		restartCause = cause;
+		restartTime = System.currentTimeMillis();
+		scheduledRestartTime = restartTime + task.getRemainingTime();
+		restartPlayers = getServer().getOnlinePlayers().length;
+		task.cancel();
+		if(drift.getCount() > 0)
+			getLogger().info(getDriftSummary());
+		// The override was for this restart only
+		if(settings.getBoolean(ServerRestarterConfigNodes.PERSIST_RUNTIME_CHANGES))
+			clearOverride();
+		writeState();
+		String message = restartMessage.render(0, restartPlayers, null);
+		kickPipeline = new KickPipeline(this, message, settings.getInt(ServerRestarterConfigNodes.KICK_BATCH_SIZE), settings.getTime(ServerRestarterConfigNodes.KICK_TIMEOUT), new Runnable() {
+			@Override
+			public void run() {
+				writeState();
+				getServer().shutdown();
+			}
+		});
+		kickPipeline.start();
 	}
 
 	@Override
@@ -190,121 +718,335 @@ public class ServerRestarter extends JavaPlugin {
 		}
 		if(args.length > 0) {
 			String message = null;
-			if(Config.isTimeValue(args[0].toLowerCase())) {
-				resetTask(Config.getTimeValue(args[0].toLowerCase()));
-				sender.sendMessage(ChatColor.YELLOW + "Set restart time to " + args[0].toLowerCase() + ".");
+			long time = DurationCodec.tryParse(args[0]);
+			if(time != -1) {
+				customTime = true;
+				resetTask(time);
+				sender.sendMessage(ChatColor.YELLOW + "Set restart time to " + DurationCodec.format(time) + ".");
 				if(args.length > 1) {
 					String[] parts = new String[args.length - 1];
 					System.arraycopy(args, 1, parts, 0, parts.length);
 					message = StringUtils.join(parts, ' ');
 				}
+			} else if(args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+				sender.sendMessage(ChatColor.YELLOW + "Restart in " + DurationCodec.format(Math.max(0, task.getRemainingTime())) + ".");
+				if(schedule != null)
+					sender.sendMessage(ChatColor.YELLOW + "Schedule: " + schedule);
+				sender.sendMessage(ChatColor.YELLOW + getDriftSummary());
+				if(progressiveSave != null)
+					sender.sendMessage(ChatColor.YELLOW + progressiveSave.getSummary());
+				if(healthMonitor != null)
+					sender.sendMessage(ChatColor.YELLOW + healthMonitor.getSummary());
+				if(populationPolicy != null)
+					sender.sendMessage(ChatColor.YELLOW + populationPolicy.getSummary());
+				sender.sendMessage(ChatColor.YELLOW + getMetricsSummary());
+				if(overrideWriter.getChanges() > 0)
+					sender.sendMessage(ChatColor.YELLOW + getWriteSummary());
 			} else if(args.length == 1 && args[0].equalsIgnoreCase("reset")) {
-				restartMessage = replaceColorCodes(config.getString(ServerRestarterConfigNodes.KICK_MESSAGE));
-				resetTask(config.getTime(ServerRestarterConfigNodes.RESTART_TIME));
+				restartMessage = MessageTemplate.compile(settings.getString(ServerRestarterConfigNodes.KICK_MESSAGE));
+				customTime = false;
+				resetTask(getConfiguredRestartTime());
+				if(settings.getBoolean(ServerRestarterConfigNodes.PERSIST_RUNTIME_CHANGES))
+					clearOverride();
 				sender.sendMessage(ChatColor.YELLOW + "Reset time and message to default setting!");
 			} else
 				message = StringUtils.join(args, ' ');
 			if(message != null) {
-				restartMessage = replaceColorCodes(message);
-				sender.sendMessage(ChatColor.YELLOW + "Set restart message to '" + ChatColor.RESET + restartMessage + ChatColor.RESET + ChatColor.YELLOW + "'.");
+				restartMessage = MessageTemplate.compile(message);
+				sender.sendMessage(ChatColor.YELLOW + "Set restart message to '" + ChatColor.RESET + getRestartReason() + ChatColor.RESET + ChatColor.YELLOW + "'.");
 			}
+			if(time != -1 || message != null)
+				saveOverride();
 		} else
-			handleRestart();
+			handleRestart("command");
 		return true;
 	}
 
+	private void recordDrift(Action action, long late) {
+		drift.record(late);
+		if(driftWarning > 0 && late >= driftWarning)
+			getLogger().warning("Action '" + action + "' fired " + late + "ms late");
+	}
+
+	private String getWriteSummary() {
+		String summary = "Override writes: " + overrideWriter.getWrites() + " for " + overrideWriter.getChanges() + " changes, " + overrideWriter.getFailedWrites() + " failed, " + overrideWriter.getPendingChanges() + " pending";
+		if(overrideWriter.getLastWriteTime() > 0)
+			summary += ", last took " + overrideWriter.getLastWriteDuration() + "ms " + DurationCodec.format(Math.max(0, System.currentTimeMillis() - overrideWriter.getLastWriteTime())) + " ago";
+		return summary;
+	}
+
+	private String getMetricsSummary() {
+		Histogram run = metrics.getHistograms().get(ServerRestarterMetrics.RUN);
+		return "Main thread: " + run.getCount() + " runs, p99 " + run.getPercentile(99) / 1000 + "us, max " + run.getMax() / 1000 + "us, " + TimeUnit.NANOSECONDS.toMillis(run.getSum()) + "ms total";
+	}
+
+	private String getDriftSummary() {
+		return "Action drift: " + drift.getCount() + " actions, p50 " + drift.getPercentile(50) + "ms, p99 " + drift.getPercentile(99) + "ms, max " + drift.getMax() + "ms";
+	}
+
+	/**
+	 * @return The registry of action types. Custom types must be registered
+	 *         during onLoad() to be available to the config.
+	 */
+	public ActionTypeRegistry getActionTypes() {
+		return actionTypes;
+	}
+
+	public ActionPlan getActionPlan() {
+		return plan;
+	}
+
+	/**
+	 * @return The executor for background file writes, shared by everything
+	 *         that persists state.
+	 */
+	public ScheduledExecutorService getIoExecutor() {
+		return ioExecutor;
+	}
+
+	/**
+	 * @return The pipeline kicking players for the restart, or null if the
+	 *         server is not restarting.
+	 */
+	public KickPipeline getKickPipeline() {
+		return kickPipeline;
+	}
+
+	/**
+	 * @return Milliseconds left on the countdown, negative once overdue.
+	 */
+	public long getRemainingTime() {
+		return task.getRemainingTime();
+	}
+
+	public boolean isRestarting() {
+		return restarting;
+	}
+
+	/**
+	 * @return Whether the restart time was set by command rather than taken
+	 *         from the config.
+	 */
+	public boolean isCustomTime() {
+		return customTime;
+	}
+
+	/**
+	 * @return How long before the restart the countdown starts its actions,
+	 *         that is the time of the earliest action, in milliseconds.
+	 */
+	public long getCountdownLead() {
+		return countdownLead;
+	}
+
+	/**
+	 * @return The population policy, or null if it is disabled.
+	 */
+	public PopulationPolicy getPopulationPolicy() {
+		return populationPolicy;
+	}
+
+	public ServerRestarterMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The health monitor, or null if it is disabled.
+	 */
+	public HealthMonitor getHealthMonitor() {
+		return healthMonitor;
+	}
+
+	/**
+	 * @return The world save running ahead of the restart, or null if it has
+	 *         not started.
+	 */
+	public ProgressiveSave getProgressiveSave() {
+		return progressiveSave;
+	}
+
+	public Histogram getDriftHistogram() {
+		return drift;
+	}
+
+	/**
+	 * @return The current restart message with colors translated, as used for
+	 *         the {reason} placeholder.
+	 */
+	public String getRestartReason() {
+		return restartMessage.getText();
+	}
+
 	public Config getConfiguration() {
 		return config;
 	}
 
-	public Scoreboard getScoreboard() {
+	public ConfigSnapshot getSettings() {
+		return settings;
+	}
+
+	public RestartScoreboard getRestartScoreboard() {
 		return scoreboard;
 	}
 
+	public Scoreboard getScoreboard() {
+		return scoreboard.getScoreboard();
+	}
+
 	public String getScoreboardTitle() {
-		return scoreboardTitle;
+		return scoreboard.getTitle();
 	}
 
 	public void setScoreboardTitle(String scoreboardTitle) {
 		if(scoreboardTitle == null)
 			throw new NullPointerException();
-		scoreboardTitle = replaceColorCodes(scoreboardTitle);
-		this.scoreboardTitle = scoreboardTitle;
-		if(scoreboard != null)
-			objective.setDisplayName(scoreboardTitle);
+		scoreboard.setTitle(MessageTemplate.translateColors(scoreboardTitle));
+	}
+
+	/**
+	 * Sets the title from a template compiled ahead of time, without
+	 * translating colors again.
+	 */
+	public void setScoreboardTitle(MessageTemplate scoreboardTitle) {
+		scoreboard.setTitle(scoreboardTitle.getText());
 	}
 
 	public String getScoreboardText() {
-		return scoreboardText;
+		return scoreboard.getText();
 	}
 
 	public String getScoreboardScoreType() {
-		return scoreboardScoreType;
+		return scoreboard.getScoreType();
 	}
 
 	public void setScoreboardFormat(String scoreboardText, String scoreboardScoreType) {
 		if(scoreboardText == null || scoreboardScoreType == null)
 			throw new NullPointerException();
-		if(!scoreboardScoreType.matches("(?i)d|h|m|s|ms"))
-			throw new IllegalArgumentException();
-		String oldText = this.scoreboardText;
-		scoreboardText = replaceColorCodes(scoreboardText);
-		this.scoreboardText = scoreboardText;
-		this.scoreboardScoreType = scoreboardScoreType;
-		if(scoreboard != null && oldText != null) {
-			OfflinePlayer target = getServer().getOfflinePlayer(oldText);
-			scoreboard.resetScores(target);
-			target = getServer().getOfflinePlayer(scoreboardText);
-			objective.getScore(target).setScore((int) getTimeFromType(scoreboardScoreType));
-		}
+		scoreboard.setFormat(MessageTemplate.translateColors(scoreboardText), scoreboardScoreType, task.getRemainingTime());
+	}
+
+	public void setScoreboardFormat(MessageTemplate scoreboardText, String scoreboardScoreType) {
+		if(scoreboardScoreType == null)
+			throw new NullPointerException();
+		scoreboard.setFormat(scoreboardText.getText(), scoreboardScoreType, task.getRemainingTime());
 	}
 
 	public void enableScoreboard() {
-		if(scoreboardText == null || scoreboardScoreType == null)
-			throw new NullPointerException("No scoreboard format specified");
-		scoreboard = Bukkit.getScoreboardManager().getNewScoreboard();
-		objective = scoreboard.registerNewObjective("restart_display", "dummy");
-		objective.setDisplaySlot(DisplaySlot.SIDEBAR);
-		objective.setDisplayName(scoreboardTitle);
-		updateScoreboard();
+		scoreboard.enable(task.getRemainingTime());
 	}
 
 	public void disableScoreboard() {
-		if(scoreboard == null)
-			return;
-		objective.unregister();
-		scoreboard = null;
-		objective = null;
+		scoreboard.disable();
 	}
 
 	public void updateScoreboard() {
-		if(scoreboard == null)
-			return;
-		OfflinePlayer target = getServer().getOfflinePlayer(scoreboardText);
-		objective.getScore(target).setScore((int) getTimeFromType(scoreboardScoreType));
-
-		for(Player player : getServer().getOnlinePlayers())
-			player.setScoreboard(scoreboard);
-	}
-
-	private long getTimeFromType(String type) {
-		type = type.toLowerCase();
-		long remaining = task.getRemainingTime();
-		if(type.equals("d"))
-			return TimeUnit.MILLISECONDS.toDays(remaining) + 1;
-		else if(type.equals("h"))
-			return TimeUnit.MILLISECONDS.toHours(remaining) + 1;
-		else if(type.equals("m"))
-			return TimeUnit.MILLISECONDS.toMinutes(remaining) + 1;
-		else if(type.equals("s"))
-			return TimeUnit.MILLISECONDS.toSeconds(remaining) + 1;
-		else if(type.equals("ms"))
-			return TimeUnit.MILLISECONDS.toMillis(remaining) + 1;
-		else
-			throw new IllegalArgumentException();
+		updateScoreboard(task.getRemainingTime());
+	}
+
+	private void updateScoreboard(long timeLeft) {
+		long start = System.nanoTime();
+		scoreboard.update(timeLeft);
+		metrics.recordScoreboard(System.nanoTime() - start);
 	}
 
 	public static ServerRestarter getInstance() {
 		return instance;
 	}
+
+	/**
+	 * Starts the progressive save once the countdown reaches the configured
+	 * time. It is added to the plan by the plugin rather than configured as an
+	 * action.
+	 */
+	private final class ProgressiveSaveAction implements Action {
+		private final long time;
+
+		public ProgressiveSaveAction(long time) {
+			this.time = time;
+		}
+
+		@Override
+		public boolean activate(long timeLeft) {
+			return timeLeft < time;
+		}
+
+		@Override
+		public void perform() {
+			if(progressiveSave != null || restarting)
+				return;
+			progressiveSave = new ProgressiveSave(ServerRestarter.this, settings.getTime(ServerRestarterConfigNodes.PROGRESSIVE_SAVE_BUDGET));
+			progressiveSave.start();
+		}
+
+		@Override
+		public long getActivationTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return "progressive_save:" + DurationCodec.format(time);
+		}
+	}
+
+	/**
+	 * Opens the population policy's window for advancing the restart, or has
+	 * it check whether to defer the restart. Added to the plan by the plugin.
+	 */
+	private final class PopulationAction implements Action {
+		private final long time;
+		private final boolean window;
+
+		public PopulationAction(long time, boolean window) {
+			this.time = time;
+			this.window = window;
+		}
+
+		@Override
+		public boolean activate(long timeLeft) {
+			return timeLeft < time;
+		}
+
+		@Override
+		public void perform() {
+			if(populationPolicy == null || restarting)
+				return;
+			if(window)
+				populationPolicy.openWindow();
+			else
+				populationPolicy.checkDefer();
+		}
+
+		@Override
+		public long getActivationTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return "population_" + (window ? "window:" : "check:") + DurationCodec.format(time);
+		}
+	}
+
+	private final class TaskHandler implements ServerRestartTask.Handler {
+		@Override
+		public void onActionFired(Action action, long late) {
+			recordDrift(action, late);
+		}
+
+		@Override
+		public void onUpdate(long timeLeft) {
+			updateScoreboard(timeLeft);
+		}
+
+		@Override
+		public long getTimeUntilUpdate(long timeLeft) {
+			return scoreboard.getTimeUntilChange(timeLeft);
+		}
+
+		@Override
+		public void onRestart() {
+			handleRestart(countdownCause != null ? countdownCause : "schedule");
+		}
+	}
 }
@@ -2,55 +2,81 @@ package org.darkstorm.minecraft.bukkit.serverrestarter;
 
 import java.util.*;
 
-import org.darkstorm.minecraft.bukkit.config.ConfigNode;
+import org.darkstorm.minecraft.bukkit.config.*;
 
 public enum ServerRestarterConfigNodes implements ConfigNode {
-	RESTART_TIME("restart_time", "3h", "Time before restarting the server.", "Format is 0d0h0m0s0ms."),
-	KICK_MESSAGE("kick_message", "Server is restarting! Come back in a minute or two!"),
-	STATE_FILE("state_file", "auto_restart", "ServerRestarter will create this file in the base server directory", "every time the plugin is enabled, and will", "delete it upon being disabled given that the server is not restarting.", "By not deleting it until being disabled, it guarantees that a server crash will cause a restart (as the plugin is not disabled in a crash).", "This option is useful for scripts to detect if the server shut down for a restart or crash."),
-	CREATE_STATE_FILE("create_state_file", "true"),
-	ACTIONS_MESSAGE_5M("actions.message_5m", "message:5m:&aServer will restart in 5 minutes...", "You may specify as many of these as you want. Name does not matter; value is the action.", "Currently accepted formats are:", "  message:<time>:<message>", "  sound:<time>:<sound>:<volume>:<pitch>", "scoreboard:<time>:enable|disable|settitle:<title>|setformat:<d|h|m|s|ms>:<text>", "List of sounds can be found at http://jd.bukkit.org/rb/apidocs/org/bukkit/Sound.html."),
-	ACTIONS_SCOREBOARD_5M_TITLE("actions.scoreboard_5m_title", "scoreboard:5m1ms:settitle:Restart Time"),
-	ACTIONS_SCOREBOARD_5M_FORMAT("actions.scoreboard_5m_format", "scoreboard:5m1ms:setformat:m:&aMinutes left:"),
-	ACTIONS_SCOREBOARD_5M_ENABLE("actions.scoreboard_5m_enable", "scoreboard:5m:enable"),
-	ACTIONS_SOUND_5M("actions.sound_5m", "sound:5m:NOTE_PIANO:1.0:3.0"),
-	ACTIONS_MESSAGE_2M("actions.message_2m", "message:2m:&aServer will restart in 2 minutes..."),
-	ACTIONS_MESSAGE_1M("actions.message_1m", "message:1m:&aServer will restart in 1 minute..."),
-	ACTIONS_SOUND_1M("actions.sound_1m", "sound:1m:NOTE_PIANO:1.0:2.0"),
-	ACTIONS_SOUND2_1M("actions.sound2_1m", "sound:1m:NOTE_BASS_GUITAR:1.0:2.0"),
-	ACTIONS_SCOREBOARD_1M_FORMAT("actions.scoreboard_1m_format", "scoreboard:1m:setformat:s:&eSeconds left:"),
-	ACTIONS_MESSAGE_30S("actions.message_30s", "message:30s:&aServer will restart in 30 seconds..."),
-	ACTIONS_SOUND_30S("actions.sound_30s", "sound:30s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SCOREBOARD_30S_FORMAT("actions.scoreboard_30s_format", "scoreboard:30s:setformat:s:&6Seconds left:"),
-	ACTIONS_MESSAGE_15S("actions.message_15s", "message:15s:&aServer will restart in 15 seconds..."),
-	ACTIONS_SOUND_15S("actions.sound_15s", "sound:15s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SCOREBOARD_15S_FORMAT("actions.scoreboard_15s_format", "scoreboard:15s:setformat:s:&cSeconds left:"),
-	ACTIONS_MESSAGE_10S("actions.message_10s", "message:10s:&aServer will restart in 10 seconds..."),
-	ACTIONS_SOUND_10S("actions.sound_10s", "sound:10s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_MESSAGE_5S("actions.message_5s", "message:5s:&aServer will restart in 5 seconds..."),
-	ACTIONS_SCOREBOARD_5S_FORMAT("actions.scoreboard_5s_format", "scoreboard:5s:setformat:s:&4Seconds left:"),
-	ACTIONS_SOUND_5S("actions.sound_5s", "sound:5s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SOUND_5S300MS("actions.sound_5s300ms", "sound:5s300ms:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_MESSAGE_4S("actions.message_4s", "message:4s:&aServer will restart in 4 seconds..."),
-	ACTIONS_SOUND_4S("actions.sound_4s", "sound:4s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SOUND_4S300MS("actions.sound_4s300ms", "sound:4s300ms:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_MESSAGE_3S("actions.message_3s", "message:3s:&aServer will restart in 3 seconds..."),
-	ACTIONS_SOUND_3S("actions.sound_3s", "sound:3s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SOUND_3S300MS("actions.sound_3s300ms", "sound:3s300ms:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_MESSAGE_2S("actions.message_2s", "message:2s:&aServer will restart in 2 seconds..."),
-	ACTIONS_SOUND_2S("actions.sound_2s", "sound:2s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SOUND_2S300MS("actions.sound_2s300ms", "sound:2s300ms:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_MESSAGE_1S("actions.message_1s", "message:1s:&aServer will restart in 1 second..."),
-	ACTIONS_SOUND_1S("actions.sound_1s", "sound:1s:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SOUND_1S300MS("actions.sound_1s300ms", "sound:1s300ms:NOTE_PIANO:1.0:1.0"),
-	ACTIONS_SOUND_1S600MS("actions.sound_1s600ms", "sound:1s600ms:NOTE_PIANO:1.0:1.0"), ;
+	RESTART_TIME("restart_time", "3h", ConfigValidators.DURATION, "Time before restarting the server.", "Format is 0d0h0m0s0ms."),
+	RESTART_SCHEDULE("restart_schedule", "", RestartSchedule.VALIDATOR, "Restart at these times instead of after restart_time. Separate times with semicolons.", "Each is either HH:mm with optional days, such as 04:00 or 16:00 MON-FRI,", "or a cron expression (minute hour day-of-month month day-of-week), such as 0 4 * * SUN.", "Leave empty to use restart_time."),
+	RESTART_TIMEZONE("restart_timezone", "", RestartSchedule.TIME_ZONE_VALIDATOR, "Time zone of restart_schedule, such as Europe/Berlin. Empty uses the system time zone."),
+	RESTART_MIN_UPTIME("restart_min_uptime", "1h", ConfigValidators.DURATION, "Scheduled times are skipped until the server has been up this long."),
+	KICK_MESSAGE("kick_message", "Server is restarting! Come back in a minute or two!", ConfigValidators.ANY),
+	STATE_FILE("state_file", "auto_restart", ConfigValidators.NOT_EMPTY, "ServerRestarter will create this file in the base server directory", "every time the plugin is enabled, and will", "delete it upon being disabled given that the server is not restarting.", "By not deleting it until being disabled, it guarantees that a server crash will cause a restart (as the plugin is not disabled in a crash).", "This option is useful for scripts to detect if the server shut down for a restart or crash.", "The file holds key=value lines: state (running, restarting or shutdown), started, uptime and scheduled,", "plus restart, cause, message, players and shutdown once restarting. Times are in epoch milliseconds."),
+	CREATE_STATE_FILE("create_state_file", "true", ConfigValidators.BOOLEAN),
+	KICK_BATCH_SIZE("kick_batch_size", "20", ConfigValidators.intRange(0, Integer.MAX_VALUE), "Players kicked per tick when the server restarts. Players with sr.kicklast are kicked last.", "Set to 0 to kick everyone at once."),
+	KICK_TIMEOUT("kick_timeout", "10s", ConfigValidators.DURATION, "Shut down after this long even if players are still online."),
+	PROGRESSIVE_SAVE_TIME("progressive_save_time", "0ms", ConfigValidators.DURATION, "Start saving the worlds this long before the restart, a little every tick, so the save on shutdown is shorter.", "Idle chunks are unloaded to save them, and autosave is turned off from then on. Set to 0ms to disable, e.g. 2m to enable."),
+	PROGRESSIVE_SAVE_BUDGET("progressive_save_budget", "5ms", ConfigValidators.DURATION, "Time per tick to spend on the progressive save."),
+	ADAPTIVE_SCHEDULING("adaptive_scheduling", "true", ConfigValidators.BOOLEAN, "If true, the countdown only wakes up when an action or the scoreboard is due", "instead of running every tick."),
+	DRIFT_WARNING("drift_warning", "1s", ConfigValidators.DURATION, "Log a warning when an action fires this much later than its configured time.", "Set to 0ms to disable."),
+	HEALTH_MONITOR("health_monitor", "false", ConfigValidators.BOOLEAN, "If true, the restart is moved earlier when the server is struggling, and later while it runs well."),
+	HEALTH_HEAP_THRESHOLD("health_heap_threshold", "0.9", ConfigValidators.floatRange(0, 1), "Restart early when the old generation is this full after a collection, from 0 to 1. Set to 0 to disable."),
+	HEALTH_GC_PAUSE("health_gc_pause", "2s", ConfigValidators.DURATION, "Restart early after a GC pause at least this long. Set to 0ms to disable."),
+	HEALTH_TICK_INTERVAL("health_tick_interval", "60", ConfigValidators.floatAboveOrZero(50, Float.MAX_VALUE), "Restart early when the time between ticks averages this many milliseconds over 30 seconds.", "Ticks are 50ms apart while the server keeps up, so this has to be above 50. Set to 0 to disable."),
+	HEALTH_RESTART_TIME("health_restart_time", "5m", ConfigValidators.DURATION, "Time left on the countdown when restarting early."),
+	HEALTH_DELAY_STEP("health_delay_step", "30m", ConfigValidators.DURATION, "How much to delay the restart by at a time while the server is healthy. Set to 0ms to disable."),
+	HEALTH_MAX_DELAY("health_max_delay", "2h", ConfigValidators.DURATION, "The most the restart is delayed in total."),
+	POPULATION_POLICY("population_policy", "false", ConfigValidators.BOOLEAN, "If true, the restart is moved to a moment when few players are online."),
+	POPULATION_THRESHOLD("population_threshold", "10", ConfigValidators.intRange(0, Integer.MAX_VALUE), "Restart early once this many players or fewer are online, and delay the restart while there are more."),
+	POPULATION_MAX_SLIP("population_max_slip", "30m", ConfigValidators.DURATION, "The most the restart is moved earlier or delayed by."),
+	POPULATION_DEFER_STEP("population_defer_step", "1m", ConfigValidators.DURATION, "How much to delay the restart by at a time while too many players are online."),
+	WATCH_CONFIG("watch_config", "true", ConfigValidators.BOOLEAN, "If true, changes to actions, restart_time, kick_message and drift_warning in this file", "are applied while the server is running, without restarting the countdown."),
+	PERSIST_RUNTIME_CHANGES("persist_runtime_changes", "false", ConfigValidators.BOOLEAN, "If true, restart times and messages set with /restart are saved to override.yml in the background", "and restored when the plugin is enabled again, until the restart happens or /restart reset is used."),
+	METRICS_FILE("metrics_file", "", ConfigValidators.ANY, "Write the time this plugin spends on the main thread to this file in the Prometheus text format,", "e.g. for the node exporter's textfile collector. Relative to the base server directory. Leave empty to disable."),
+	METRICS_INTERVAL("metrics_interval", "15s", ConfigValidators.DURATION, "How often to write the metrics file."),
+	ACTIONS_MESSAGE_5M("actions.message_5m", "message:5m:&aServer will restart in 5 minutes...", ActionTypes.VALIDATOR, "You may specify as many of these as you want. Name does not matter; value is the action.", "Currently accepted formats are:", "  message:<time>:<message>", "    Messages may use {remaining} (the action time in words), {players} and {reason} (the restart message).", "  sound:<time>:<sound>:<volume>:<pitch>", "scoreboard:<time>:enable|disable|settitle:<title>|setformat:<d|h|m|s|ms>:<text>", "List of sounds can be found at http://jd.bukkit.org/rb/apidocs/org/bukkit/Sound.html."),
+	ACTIONS_SCOREBOARD_5M_TITLE("actions.scoreboard_5m_title", "scoreboard:5m1ms:settitle:Restart Time", ActionTypes.VALIDATOR),
+	ACTIONS_SCOREBOARD_5M_FORMAT("actions.scoreboard_5m_format", "scoreboard:5m1ms:setformat:m:&aMinutes left:", ActionTypes.VALIDATOR),
+	ACTIONS_SCOREBOARD_5M_ENABLE("actions.scoreboard_5m_enable", "scoreboard:5m:enable", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_5M("actions.sound_5m", "sound:5m:NOTE_PIANO:1.0:3.0", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_2M("actions.message_2m", "message:2m:&aServer will restart in 2 minutes...", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_1M("actions.message_1m", "message:1m:&aServer will restart in 1 minute...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_1M("actions.sound_1m", "sound:1m:NOTE_PIANO:1.0:2.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND2_1M("actions.sound2_1m", "sound:1m:NOTE_BASS_GUITAR:1.0:2.0", ActionTypes.VALIDATOR),
+	ACTIONS_SCOREBOARD_1M_FORMAT("actions.scoreboard_1m_format", "scoreboard:1m:setformat:s:&eSeconds left:", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_30S("actions.message_30s", "message:30s:&aServer will restart in 30 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_30S("actions.sound_30s", "sound:30s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SCOREBOARD_30S_FORMAT("actions.scoreboard_30s_format", "scoreboard:30s:setformat:s:&6Seconds left:", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_15S("actions.message_15s", "message:15s:&aServer will restart in 15 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_15S("actions.sound_15s", "sound:15s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SCOREBOARD_15S_FORMAT("actions.scoreboard_15s_format", "scoreboard:15s:setformat:s:&cSeconds left:", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_10S("actions.message_10s", "message:10s:&aServer will restart in 10 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_10S("actions.sound_10s", "sound:10s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_5S("actions.message_5s", "message:5s:&aServer will restart in 5 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SCOREBOARD_5S_FORMAT("actions.scoreboard_5s_format", "scoreboard:5s:setformat:s:&4Seconds left:", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_5S("actions.sound_5s", "sound:5s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_5S300MS("actions.sound_5s300ms", "sound:5s300ms:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_4S("actions.message_4s", "message:4s:&aServer will restart in 4 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_4S("actions.sound_4s", "sound:4s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_4S300MS("actions.sound_4s300ms", "sound:4s300ms:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_3S("actions.message_3s", "message:3s:&aServer will restart in 3 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_3S("actions.sound_3s", "sound:3s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_3S300MS("actions.sound_3s300ms", "sound:3s300ms:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_2S("actions.message_2s", "message:2s:&aServer will restart in 2 seconds...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_2S("actions.sound_2s", "sound:2s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_2S300MS("actions.sound_2s300ms", "sound:2s300ms:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_MESSAGE_1S("actions.message_1s", "message:1s:&aServer will restart in 1 second...", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_1S("actions.sound_1s", "sound:1s:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_1S300MS("actions.sound_1s300ms", "sound:1s300ms:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR),
+	ACTIONS_SOUND_1S600MS("actions.sound_1s600ms", "sound:1s600ms:NOTE_PIANO:1.0:1.0", ActionTypes.VALIDATOR), ;
 
 	private final String node, defaultValue;
+	private final ConfigValidator validator;
 	private final List<String> comments;
 
-	ServerRestarterConfigNodes(String node, String defaultValue, String... comments) {
+	ServerRestarterConfigNodes(String node, String defaultValue, ConfigValidator validator, String... comments) {
 		this.node = node;
 		this.defaultValue = defaultValue;
+		this.validator = validator;
 		this.comments = Collections.unmodifiableList(Arrays.asList(comments));
 	}
 
@@ -71,6 +97,11 @@ public enum ServerRestarterConfigNodes implements ConfigNode {
 
 	@Override
 	public boolean isValid(String value) {
-		return true;
+		return validator.validate(value) == null;
+	}
+
+	@Override
+	public ConfigValidator getValidator() {
+		return validator;
 	}
 }
@@ -0,0 +1,34 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import org.bukkit.event.*;
+import org.bukkit.event.player.*;
+
+public class ServerRestarterListener implements Listener {
+	private final ServerRestarter plugin;
+
+	public ServerRestarterListener(ServerRestarter plugin) {
+		this.plugin = plugin;
+	}
+
+	@EventHandler(priority = EventPriority.HIGHEST)
+	public void onPlayerLogin(PlayerLoginEvent event) {
+		KickPipeline pipeline = plugin.getKickPipeline();
+		if(pipeline != null)
+			event.disallow(PlayerLoginEvent.Result.KICK_OTHER, pipeline.getMessage());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerJoin(PlayerJoinEvent event) {
+		plugin.getRestartScoreboard().show(event.getPlayer());
+		PopulationPolicy policy = plugin.getPopulationPolicy();
+		if(policy != null)
+			policy.onJoin();
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent event) {
+		PopulationPolicy policy = plugin.getPopulationPolicy();
+		if(policy != null)
+			policy.onQuit();
+	}
+}
@@ -0,0 +1,184 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.darkstorm.minecraft.bukkit.serverrestarter.ServerRestartTask.Action;
+
+/**
+ * Timers for the plugin's own main thread work, recorded in nanoseconds into
+ * histograms that never allocate. Timers are written on the main thread only
+ * and read from JMX and the metrics file writer, which may see slightly stale
+ * values.
+ */
+public final class ServerRestarterMetrics implements ServerRestarterMetricsMBean {
+	public static final String RUN = "run", SCOREBOARD = "scoreboard", RESTART = "restart";
+	private static final String ACTION_PREFIX = "action.";
+
+	private static final ClassValue<String> actionTypes = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			// MessageAction becomes message, ProgressiveSaveAction
+			// progressive_save
+			String name = type.getSimpleName();
+			if(name.endsWith("Action") && name.length() > 6)
+				name = name.substring(0, name.length() - 6);
+			StringBuilder builder = new StringBuilder(ACTION_PREFIX);
+			for(int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if(Character.isUpperCase(c)) {
+					if(i > 0)
+						builder.append('_');
+					builder.append(Character.toLowerCase(c));
+				} else
+					builder.append(c);
+			}
+			return builder.toString();
+		}
+	};
+
+	private final ServerRestarter plugin;
+	private final Histogram run = new Histogram(), scoreboard = new Histogram(), restart = new Histogram();
+	private final ConcurrentMap<String, Histogram> timers = new ConcurrentSkipListMap<String, Histogram>();
+
+	public ServerRestarterMetrics(ServerRestarter plugin) {
+		this.plugin = plugin;
+		timers.put(RUN, run);
+		timers.put(SCOREBOARD, scoreboard);
+		timers.put(RESTART, restart);
+	}
+
+	public void recordRun(long nanos) {
+		run.record(nanos);
+	}
+
+	public void recordScoreboard(long nanos) {
+		scoreboard.record(nanos);
+	}
+
+	public void recordRestart(long nanos) {
+		restart.record(nanos);
+	}
+
+	public void recordAction(Action action, long nanos) {
+		String name = actionTypes.get(action.getClass());
+		Histogram timer = timers.get(name);
+		if(timer == null) {
+			timer = new Histogram();
+			timers.put(name, timer);
+		}
+		timer.record(nanos);
+	}
+
+	/**
+	 * @return The timers by name, in name order.
+	 */
+	public Map<String, Histogram> getHistograms() {
+		return Collections.unmodifiableMap(timers);
+	}
+
+	@Override
+	public String[] getTimers() {
+		return timers.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public long getRunCount() {
+		return run.getCount();
+	}
+
+	@Override
+	public double getRunP99Micros() {
+		return toMicros(run.getPercentile(99));
+	}
+
+	@Override
+	public double getRunMaxMicros() {
+		return toMicros(run.getMax());
+	}
+
+	@Override
+	public double getRunTotalMicros() {
+		return toMicros(run.getSum());
+	}
+
+	@Override
+	public double getScoreboardP99Micros() {
+		return toMicros(scoreboard.getPercentile(99));
+	}
+
+	@Override
+	public double getScoreboardTotalMicros() {
+		return toMicros(scoreboard.getSum());
+	}
+
+	@Override
+	public long getRemainingMillis() {
+		return plugin.isRestarting() ? 0 : Math.max(0, plugin.getRemainingTime());
+	}
+
+	@Override
+	public long getCount(String timer) {
+		return getTimer(timer).getCount();
+	}
+
+	@Override
+	public double getPercentileMicros(String timer, double percentile) {
+		return toMicros(getTimer(timer).getPercentile(percentile));
+	}
+
+	@Override
+	public double getMaxMicros(String timer) {
+		return toMicros(getTimer(timer).getMax());
+	}
+
+	@Override
+	public double getTotalMicros(String timer) {
+		return toMicros(getTimer(timer).getSum());
+	}
+
+	private Histogram getTimer(String name) {
+		Histogram timer = timers.get(name);
+		if(timer == null)
+			throw new IllegalArgumentException("Unknown timer " + name);
+		return timer;
+	}
+
+	/**
+	 * Renders every timer as a Prometheus summary in the text exposition
+	 * format, along with the time left on the countdown.
+	 */
+	public String toPrometheusText() {
+		StringBuilder builder = new StringBuilder(2048);
+		builder.append("# HELP serverrestarter_main_thread_seconds Main thread time spent by ServerRestarter.\n");
+		builder.append("# TYPE serverrestarter_main_thread_seconds summary\n");
+		for(Map.Entry<String, Histogram> entry : timers.entrySet()) {
+			String name = entry.getKey();
+			Histogram timer = entry.getValue();
+			for(double quantile : new double[] { 0.5, 0.9, 0.99 })
+				appendSample(builder, "serverrestarter_main_thread_seconds", name, ",quantile=\"" + quantile + "\"", toSeconds(timer.getPercentile(quantile * 100)));
+			appendSample(builder, "serverrestarter_main_thread_seconds_sum", name, "", toSeconds(timer.getSum()));
+			builder.append("serverrestarter_main_thread_seconds_count{timer=\"").append(name).append("\"} ").append(timer.getCount()).append('\n');
+		}
+		builder.append("# HELP serverrestarter_main_thread_max_seconds Longest single main thread call by ServerRestarter.\n");
+		builder.append("# TYPE serverrestarter_main_thread_max_seconds gauge\n");
+		for(Map.Entry<String, Histogram> entry : timers.entrySet())
+			appendSample(builder, "serverrestarter_main_thread_max_seconds", entry.getKey(), "", toSeconds(entry.getValue().getMax()));
+		builder.append("# HELP serverrestarter_restart_remaining_seconds Time left until the restart.\n");
+		builder.append("# TYPE serverrestarter_restart_remaining_seconds gauge\n");
+		builder.append("serverrestarter_restart_remaining_seconds ").append(getRemainingMillis() / 1000.0).append('\n');
+		return builder.toString();
+	}
+
+	private static void appendSample(StringBuilder builder, String metric, String timer, String labels, double value) {
+		builder.append(metric).append("{timer=\"").append(timer).append('"').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static double toMicros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	private static double toSeconds(long nanos) {
+		return nanos / 1e9;
+	}
+}
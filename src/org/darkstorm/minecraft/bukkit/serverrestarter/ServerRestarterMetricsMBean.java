@@ -0,0 +1,34 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+/**
+ * Main thread time spent by the plugin, by timer. The timers are run (each
+ * countdown run, including everything below), scoreboard (scoreboard
+ * updates), restart (handleRestart()) and action.&lt;type&gt; (performing
+ * actions of each type). Times are in microseconds and percentiles are
+ * accurate to within 12.5%.
+ */
+public interface ServerRestarterMetricsMBean {
+	public String[] getTimers();
+
+	public long getRunCount();
+
+	public double getRunP99Micros();
+
+	public double getRunMaxMicros();
+
+	public double getRunTotalMicros();
+
+	public double getScoreboardP99Micros();
+
+	public double getScoreboardTotalMicros();
+
+	public long getRemainingMillis();
+
+	public long getCount(String timer);
+
+	public double getPercentileMicros(String timer, double percentile);
+
+	public double getMaxMicros(String timer);
+
+	public double getTotalMicros(String timer);
+}
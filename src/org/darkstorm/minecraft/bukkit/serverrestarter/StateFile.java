@@ -0,0 +1,101 @@
+package org.darkstorm.minecraft.bukkit.serverrestarter;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import org.darkstorm.minecraft.bukkit.config.AtomicFile;
+
+/**
+ * The state file read by restart scripts, written from the I/O executor so
+ * the main thread never waits on the disk. Each write replaces the file
+ * atomically with one key=value line per field, in the order the fields were
+ * given. Backslashes and line breaks in values are escaped as \\, \n and \r.
+ * The file exists from enable until a clean disable, so a file left behind by
+ * anything but a restart means the server crashed.
+ */
+final class StateFile {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final Executor executor;
+	private final Logger logger;
+
+	StateFile(File file, Executor executor, Logger logger) {
+		if(file == null || executor == null || logger == null)
+			throw new NullPointerException();
+		this.file = file;
+		this.executor = executor;
+		this.logger = logger;
+	}
+
+	/**
+	 * Queues a write of the given fields. Values are converted with
+	 * String.valueOf() before returning.
+	 */
+	void write(Map<String, ?> fields) {
+		StringBuilder builder = new StringBuilder(256);
+		for(Map.Entry<String, ?> field : fields.entrySet()) {
+			builder.append(field.getKey()).append('=');
+			escape(String.valueOf(field.getValue()), builder);
+			builder.append('\n');
+		}
+		final String contents = builder.toString();
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				if(file.isDirectory()) {
+					logger.severe("Status file is a directory!");
+					return;
+				}
+				try {
+					AtomicFile.write(file, contents, UTF_8);
+				} catch(IOException exception) {
+					logger.severe("Unable to write status file: " + exception.getMessage());
+				}
+			}
+		});
+	}
+
+	void delete() {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				if(file.isDirectory())
+					logger.severe("Status file is a directory!");
+				else if(file.exists() && !file.delete())
+					logger.severe("Unable to delete status file!");
+			}
+		});
+	}
+
+	private void submit(Runnable runnable) {
+		try {
+			executor.execute(runnable);
+		} catch(RejectedExecutionException exception) {
+			// Shutting down already, so there is no main tick left to protect
+			runnable.run();
+		}
+	}
+
+	private static void escape(String value, StringBuilder builder) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch(c) {
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			default:
+				builder.append(c);
+			}
+		}
+	}
+}